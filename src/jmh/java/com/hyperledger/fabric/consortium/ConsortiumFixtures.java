@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.hyperledger.fabric.sdk.Enrollment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * the identities shared by the benchmarks, generated the way cryptogen does: an EC P-256 key
+ * with a self signed X.509 certificate.
+ */
+final class ConsortiumFixtures {
+
+    private ConsortiumFixtures() {
+    }
+
+    static Enrollment newEnrollment(String name, String org) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name subject = new X500Name("CN=" + name + ",O=" + org);
+        Date notBefore = new Date();
+        Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(365));
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(System.nanoTime()),
+                notBefore, notAfter, subject, keyPair.getPublic());
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(new JcaX509CertificateConverter().getCertificate(
+                    builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate()))));
+        }
+        return new ConsortiumStore.StoreEnrollement(keyPair.getPrivate(), pem.toString());
+    }
+
+    /**
+     * encode a private key the way the cryptogen {@code _sk} files are: PKCS#8 PEM.
+     */
+    static String toPkcs8Pem(PrivateKey key) throws IOException {
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(new JcaPKCS8Generator(key, null));
+        }
+        return pem.toString();
+    }
+
+    /**
+     * write the key and the certificate of an enrollment as a cryptogen like msp directory.
+     * @return the {@code keystore} and {@code signcerts/cert.pem} files
+     */
+    static File[] writeMsp(File directory, Enrollment enrollment) throws IOException {
+        File keystore = new File(directory, "keystore");
+        File signcerts = new File(directory, "signcerts");
+        Files.createDirectories(keystore.toPath());
+        Files.createDirectories(signcerts.toPath());
+        File keyFile = new File(keystore, "0d8185f2493958e63be68a723cf1a74278dac17003ef9cf4772fc21e5cf53594_sk");
+        File certFile = new File(signcerts, "cert.pem");
+        Files.write(keyFile.toPath(), toPkcs8Pem(enrollment.getKey()).getBytes(UTF_8));
+        Files.write(certFile.toPath(), enrollment.getCert().getBytes(UTF_8));
+        return new File[] {keyFile, certFile};
+    }
+
+    /**
+     * a fully enrolled user which is not bound to any store.
+     */
+    static ConsortiumUser newUser(String name, String org) throws Exception {
+        ConsortiumUser user = new ConsortiumUser(name, org);
+        user.setMspId("Org1MSP");
+        user.setAccount(name + "Account");
+        user.setAffiliation("org1.department1");
+        user.setEnrollmentSecret("sTruIWiLlOMzhPrvuJhM");
+        user.setRoles(Collections.singleton("client"));
+        user.setEnrollment(newEnrollment(name, org));
+        return user;
+    }
+}
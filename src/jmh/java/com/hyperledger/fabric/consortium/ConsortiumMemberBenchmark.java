@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * the identity layer on top of the {@link ConsortiumStore}: saving and restoring a {@link ConsortiumUser}
+ * and {@link ConsortiumStore#getMember(String, String, String, File, File)} with and without the {@link MemberCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsortiumMemberBenchmark {
+
+    private File directory;
+    private ConsortiumStore store;
+    private ConsortiumUser user;
+    private File keyFile;
+    private File certificateFile;
+    private int account;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("consortium-member-benchmark").toFile();
+        store = new ConsortiumStore(new LogStructuredStoreBackend(new File(directory, "store")));
+        ConsortiumUser detached = ConsortiumFixtures.newUser("user1", "peerOrg1");
+        user = store.getMember("user1", "peerOrg1");
+        user.edit().setMspId(detached.getMspId()).setAffiliation(detached.getAffiliation())
+                .setEnrollmentSecret(detached.getEnrollmentSecret()).setEnrollment(detached.getEnrollment()).commit();
+        File[] msp = ConsortiumFixtures.writeMsp(new File(directory, "msp"), detached.getEnrollment());
+        keyFile = msp[0];
+        certificateFile = msp[1];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public ConsortiumUser saveState() {
+        return user.edit().setAccount("account" + (account++)).commit();
+    }
+
+    @Benchmark
+    public ConsortiumUser restoreState() {
+        return new ConsortiumUser("user1", "peerOrg1", store);
+    }
+
+    @Benchmark
+    public ConsortiumUser getMemberCached() throws Exception {
+        return store.getMember("peerOrg1Admin", "peerOrg1", "Org1MSP", keyFile, certificateFile);
+    }
+
+    @Benchmark
+    public ConsortiumUser getMemberUncached() throws Exception {
+        store.getMemberCache().invalidate(ConsortiumUser.toKeyValStoreName("peerOrg1Admin", "peerOrg1"));
+        return store.getMember("peerOrg1Admin", "peerOrg1", "Org1MSP", keyFile, certificateFile);
+    }
+}
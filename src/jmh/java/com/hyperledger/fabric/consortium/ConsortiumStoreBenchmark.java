@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConsortiumStore#setValue(String, String)} and {@link ConsortiumStore#getValue(String)} on the
+ * file backends, over stores of growing size. the values are user state sized (about 2 KB).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsortiumStoreBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int storeSize;
+
+    @Param({"PROPERTIES", "WRITE_BEHIND", "LOG"})
+    public String backend;
+
+    private File directory;
+    private ConsortiumStore store;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("consortium-store-benchmark").toFile();
+        File file = new File(directory, "store");
+        switch (backend) {
+            case "WRITE_BEHIND":
+                store = new ConsortiumStore(new PropertiesStoreBackend(file, 1000L));
+                break;
+            case "LOG":
+                store = new ConsortiumStore(new LogStructuredStoreBackend(file));
+                break;
+            default:
+                store = new ConsortiumStore(new PropertiesStoreBackend(file));
+        }
+        value = ConsortiumUserCodec.encodeToString(ConsortiumFixtures.newUser("user1", "peerOrg1"));
+        value = value + value + value;
+        for (int i = 0; i < storeSize; i++) {
+            store.setValue(key(i), value);
+        }
+        store.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    @Benchmark
+    public void setValue() {
+        store.setValue(key(ThreadLocalRandom.current().nextInt(storeSize)), value);
+    }
+
+    @Benchmark
+    public String getValue() {
+        return store.getValue(key(ThreadLocalRandom.current().nextInt(storeSize)));
+    }
+
+    private static String key(int i) {
+        return "user.user" + i + "peerOrg1";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compare the legacy java serialization + hex state of a {@link ConsortiumUser} with {@link ConsortiumUserCodec}.
+ * the stored sizes of both formats are printed once per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsortiumUserCodecBenchmark {
+
+    private ConsortiumUser user;
+    private String legacyState;
+    private String binaryState;
+
+    @Setup
+    public void setup() throws Exception {
+        user = ConsortiumFixtures.newUser("user1", "peerOrg1");
+        legacyState = encodeLegacy(user);
+        binaryState = ConsortiumUserCodec.encodeToString(user);
+        System.out.printf("%nstored state size: legacy %d chars, binary %d chars%n", legacyState.length(), binaryState.length());
+    }
+
+    @Benchmark
+    public String encodeLegacy() throws IOException {
+        return encodeLegacy(user);
+    }
+
+    @Benchmark
+    public String encodeBinary() throws IOException {
+        return ConsortiumUserCodec.encodeToString(user);
+    }
+
+    @Benchmark
+    public ConsortiumUser decodeLegacy() throws Exception {
+        return ConsortiumUser.readLegacyState(legacyState);
+    }
+
+    @Benchmark
+    public ConsortiumUser decodeBinary() throws IOException {
+        return ConsortiumUserCodec.decodeFromString(binaryState);
+    }
+
+    private static String encodeLegacy(ConsortiumUser user) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
+            os.writeObject(user);
+        }
+        return Hex.toHexString(bos.toByteArray());
+    }
+}
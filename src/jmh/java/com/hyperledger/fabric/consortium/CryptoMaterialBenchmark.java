@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.hyperledger.fabric.commonutils.CryptoMaterialCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * PEM private key parsing with BouncyCastle against the lookup in the {@link CryptoMaterialCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoMaterialBenchmark {
+
+    private File keyFile;
+    private String pem;
+    private final CryptoMaterialCache cache = new CryptoMaterialCache(1000L);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        pem = ConsortiumFixtures.toPkcs8Pem(ConsortiumFixtures.newEnrollment("user1", "peerOrg1").getKey());
+        keyFile = File.createTempFile("crypto-material-benchmark", "_sk");
+        Files.write(keyFile.toPath(), pem.getBytes(UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(keyFile.toPath());
+    }
+
+    @Benchmark
+    public PrivateKey parsePrivateKey() throws IOException {
+        return CryptoMaterialCache.parsePrivateKey(pem);
+    }
+
+    @Benchmark
+    public PrivateKey readAndParsePrivateKey() throws IOException {
+        return CryptoMaterialCache.parsePrivateKey(new String(Files.readAllBytes(keyFile.toPath()), UTF_8));
+    }
+
+    @Benchmark
+    public PrivateKey cachedPrivateKey() throws IOException {
+        return cache.getPrivateKey(keyFile);
+    }
+}
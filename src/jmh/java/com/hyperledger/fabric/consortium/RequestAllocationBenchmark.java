@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the client side of the invoke and query hot path: building the proposal request and the result.
+ * the {@code legacy} benchmarks rebuild the request the way the manager did before {@link ChaincodeRequests}
+ * (a fresh transient map of fresh byte arrays, the endorsement lists and the result map), so that the bytes
+ * per operation of both can be compared with the gc profiler:
+ * <pre class="code">
+ *     mvn -P benchmark compile exec:exec -Dexec.args="-classpath %classpath com.hyperledger.fabric.consortium.RequestAllocationBenchmark"
+ * </pre>
+ * look at the {@code gc.alloc.rate.norm} lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestAllocationBenchmark {
+    private static final String[] ARGS = {"a", "b", "10"};
+
+    private HFClient client;
+    private ChaincodeID chaincodeID;
+    private ChaincodeRequests requests;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RequestAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-allocation.json")
+                .build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        client = HFClient.createNewInstance();
+        client.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+        client.setUserContext(ConsortiumFixtures.newUser("user1", "peerOrg1"));
+        chaincodeID = ChaincodeID.newBuilder().setName("mycc").setVersion("1.0").setPath("github.com/chaincode/chaincode_example02/go").build();
+        requests = new ChaincodeRequests(client, chaincodeID);
+    }
+
+    @Benchmark
+    public void legacyInvoke(Blackhole blackhole) throws Exception {
+        Map<String, String> resultMap = new HashMap<>();
+        Collection<ProposalResponse> successful = new LinkedList<>();
+        Collection<ProposalResponse> failed = new LinkedList<>();
+        TransactionProposalRequest request = client.newTransactionProposalRequest();
+        request.setChaincodeID(chaincodeID);
+        request.setFcn("invoke");
+        request.setArgs(ARGS);
+        Map<String, byte[]> tm2 = new HashMap<>();
+        tm2.put("HyperLedgerFabric", "TransactionProposalRequest:JavaSDK".getBytes("UTF-8"));
+        tm2.put("method", "TransactionProposalRequest".getBytes("UTF-8"));
+        tm2.put("result", ":)".getBytes("UTF-8"));
+        request.setTransientMap(tm2);
+        resultMap.put("code", "success");
+        resultMap.put("data", "90");
+        blackhole.consume(request);
+        blackhole.consume(successful);
+        blackhole.consume(failed);
+        blackhole.consume(resultMap);
+    }
+
+    @Benchmark
+    public void invoke(Blackhole blackhole) throws Exception {
+        blackhole.consume(requests.newTransactionProposal("invoke", ARGS));
+        blackhole.consume(ChaincodeResult.success("90"));
+    }
+
+    @Benchmark
+    public void legacyQuery(Blackhole blackhole) throws Exception {
+        Map<String, String> resultMap = new HashMap<>();
+        QueryByChaincodeRequest request = client.newQueryProposalRequest();
+        request.setArgs(ARGS);
+        request.setFcn("query");
+        request.setChaincodeID(chaincodeID);
+        Map<String, byte[]> tm2 = new HashMap<>();
+        tm2.put("HyperLedgerFabric", "QueryByChaincodeRequest:JavaSDK".getBytes("UTF-8"));
+        tm2.put("method", "QueryByChaincodeRequest".getBytes("UTF-8"));
+        request.setTransientMap(tm2);
+        resultMap.put("code", "success");
+        resultMap.put("data", "90");
+        blackhole.consume(request);
+        blackhole.consume(resultMap);
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) throws Exception {
+        blackhole.consume(requests.newQuery("query", ARGS));
+        blackhole.consume(ChaincodeResult.success("90"));
+    }
+}
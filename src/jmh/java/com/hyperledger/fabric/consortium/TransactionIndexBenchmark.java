@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TransactionIndex#get(String)} of indexed and unknown transaction ids, over indexes of growing size
+ * flushed into runs of 65536 transactions and merged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionIndexBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int indexSize;
+
+    private File directory;
+    private TransactionIndex index;
+    private String[] indexed;
+    private String[] unknown;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("transaction-index-benchmark").toFile();
+        index = new TransactionIndex(directory, 65536);
+        indexed = new String[Math.min(indexSize, 65536)];
+        unknown = new String[indexed.length];
+        for (int i = 0; i < indexSize; i++) {
+            String transactionId = transactionId(i);
+            index.put(new TransactionLocation(transactionId, i / 10, i % 10, (byte) 0));
+            if (i % 65536 == 65535) {
+                index.flush();
+            }
+            if (i < indexed.length) {
+                indexed[i] = transactionId;
+                unknown[i] = transactionId(indexSize + i);
+            }
+        }
+        index.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        File[] files = directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    @Benchmark
+    public TransactionLocation hit() {
+        return index.get(indexed[ThreadLocalRandom.current().nextInt(indexed.length)]);
+    }
+
+    @Benchmark
+    public TransactionLocation miss() {
+        return index.get(unknown[ThreadLocalRandom.current().nextInt(unknown.length)]);
+    }
+
+    private static String transactionId(long i) {
+        return String.format("%016x%016x%016x%016x", i * 0x9E3779B97F4A7C15L, i, ~i, i * 31);
+    }
+}
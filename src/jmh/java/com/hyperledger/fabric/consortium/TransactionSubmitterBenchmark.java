@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * transactions per second of 16 caller threads against an in-process mock network: a synchronous
+ * endorse, broadcast and wait for commit per call against the {@link TransactionSubmitter} window.
+ * the mock peer takes {@code endorseMicros} per proposal, the mock orderer {@code broadcastMicros} per
+ * broadcast and commits the transaction {@code commitMillis} later, as a block cut by timeout would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class TransactionSubmitterBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int maxInFlight;
+
+    @Param({"2000"})
+    public long endorseMicros;
+
+    @Param({"500"})
+    public long broadcastMicros;
+
+    @Param({"50"})
+    public long commitMillis;
+
+    private MockNetwork network;
+    private TransactionSubmitter<String> submitter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        network = new MockNetwork(endorseMicros, broadcastMicros, commitMillis);
+        submitter = new TransactionSubmitter<>("benchmark", network, maxInFlight, 16, 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        submitter.close();
+        network.close();
+        System.out.println();
+        System.out.println(submitter);
+    }
+
+    @Benchmark
+    public InvokeResult synchronousInvoke() throws Exception {
+        return network.broadcast(network.endorse("invoke", new String[]{"a", "b", "1"})).get();
+    }
+
+    @Benchmark
+    public CompletableFuture<InvokeResult> pipelinedSubmit() throws Exception {
+        return submitter.submit("invoke", new String[]{"a", "b", "1"});
+    }
+
+    /**
+     * a peer and an orderer answering after fixed delays.
+     */
+    static final class MockNetwork implements TransactionSubmitter.Stages<String> {
+        private final long endorseNanos;
+        private final long broadcastNanos;
+        private final long commitMillis;
+        private final AtomicLong transactionIds = new AtomicLong();
+        private final AtomicLong blockNumber = new AtomicLong();
+        private final ScheduledExecutorService orderer = Executors.newScheduledThreadPool(2);
+
+        MockNetwork(long endorseMicros, long broadcastMicros, long commitMillis) {
+            this.endorseNanos = TimeUnit.MICROSECONDS.toNanos(endorseMicros);
+            this.broadcastNanos = TimeUnit.MICROSECONDS.toNanos(broadcastMicros);
+            this.commitMillis = commitMillis;
+        }
+
+        @Override
+        public String endorse(String fcn, String[] args) {
+            LockSupport.parkNanos(endorseNanos);
+            return Long.toHexString(transactionIds.incrementAndGet());
+        }
+
+        @Override
+        public CompletableFuture<InvokeResult> broadcast(String transactionId) {
+            LockSupport.parkNanos(broadcastNanos);
+            CompletableFuture<InvokeResult> committed = new CompletableFuture<>();
+            orderer.schedule(() -> committed.complete(new InvokeResult(transactionId, "", (byte) 0, blockNumber.incrementAndGet())),
+                    commitMillis, TimeUnit.MILLISECONDS);
+            return committed;
+        }
+
+        void close() {
+            orderer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * closed loop load generator of the {@code /query} endpoint of a running application: every thread sends a
+ * request as soon as the previous one answered, for the given duration, then the throughput and the latency
+ * percentiles are printed. run it against a build creating the consortium manager per request and against the
+ * build sharing the manager bean to compare the requests/sec.
+ * <pre class="code">
+ *     mvn -P benchmark compile exec:exec -Dexec.args="-classpath %classpath com.hyperledger.fabric.controller.QueryLoadGenerator http://localhost:8090/query 8 30"
+ * </pre>
+ * the arguments are the url, the number of threads and the duration in seconds. the endpoint answers 200 to
+ * the failed queries too, a request succeeds only if the body is {@value #SUCCESS}.
+ */
+public class QueryLoadGenerator {
+    private static final String SUCCESS = "query success";
+
+    public static void main(String[] args) throws Exception {
+        final URL url = new URL(args.length > 0 ? args[0] : "http://localhost:8090/query");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long durationNanos = TimeUnit.SECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 30L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long deadline = System.nanoTime() + durationNanos;
+        List<Future<Result>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> run(url, deadline)));
+        }
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.add(future.get());
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        long[] latencies = Arrays.copyOf(total.latencies, total.count);
+        Arrays.sort(latencies);
+        System.out.printf("%s with %d threads for %d s: %d requests (%d failed), %.1f requests/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                url, threads, TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), total.count, total.failures,
+                total.count * 1e9 / elapsedNanos, millis(percentile(latencies, 0.50)),
+                millis(percentile(latencies, 0.99)), millis(percentile(latencies, 1.0)));
+    }
+
+    private static Result run(URL url, long deadline) {
+        Result result = new Result();
+        byte[] buffer = new byte[4096];
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            boolean success;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream in = connection.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        //drain the body so that the connection is kept alive
+                        body.write(buffer, 0, read);
+                    }
+                }
+                success = connection.getResponseCode() == HttpURLConnection.HTTP_OK
+                        && SUCCESS.equals(new String(body.toByteArray(), UTF_8));
+            } catch (IOException e) {
+                success = false;
+            }
+            result.record(System.nanoTime() - start, success);
+        }
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static final class Result {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int failures;
+
+        void record(long latencyNanos, boolean success) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            if (!success) {
+                failures++;
+            }
+        }
+
+        void add(Result other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i], true);
+            }
+            failures += other.failures;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.hyperledger.fabric.business;
 import com.hyperledger.fabric.commonutils.ConfigHelper;
 import com.hyperledger.fabric.commonutils.FabricCommonConfig;
+import com.hyperledger.fabric.consortium.BlockCache;
+import com.hyperledger.fabric.consortium.BlockRangeScanner;
 import com.hyperledger.fabric.consortium.ConsortiumOrg;
 import com.hyperledger.fabric.consortium.ConsortiumStore;
 import com.hyperledger.fabric.consortium.ConsortiumUser;
@@ -27,6 +29,9 @@ import java.net.MalformedURLException;
 import java.nio.file.Paths;
 import java.security.PrivateKey;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import static java.lang.String.format;
@@ -36,6 +41,14 @@ import static org.hyperledger.fabric.sdk.Channel.NOfEvents.createNofEvents;
 import static org.hyperledger.fabric.sdk.Channel.PeerOptions.createPeerOptions;
 import static org.hyperledger.fabric.sdk.Channel.TransactionOptions.createTransactionOptions;
 public class FabricBusiness {
+    /**
+     * the number of blocks the block walker queries ahead, spread over the peers of the channel.
+     */
+    private static final int BLOCK_WALKER_PREFETCH = 16;
+    /**
+     * the direct memory holding the blocks queried by number or hash and the live blocks.
+     */
+    private static final long BLOCK_CACHE_BYTES = 64L * 1024 * 1024;
     private FabricCommonConfig testConfig = new FabricCommonConfig();
     private String fabricAdminName = "admin";
     private String fabricUser1Name = "user1";
@@ -53,6 +66,7 @@ public class FabricBusiness {
     private String testTxID = null;  // save the CC invoke TxID and use in queries
     private ConsortiumStore sampleStore = null;
     private Collection<ConsortiumOrg> consortiumOrgCollection;
+    private BlockCache blockCache;
 
     public void checkConfig() throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException, MalformedURLException, org.hyperledger.fabric_ca.sdk.exception.InvalidArgumentException {
         configHelper.customizeConfig();
@@ -80,6 +94,7 @@ public class FabricBusiness {
     public void runFabricTest(final ConsortiumStore sampleStore) throws Exception {
         HFClient client = HFClient.createNewInstance();
         client.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+        blockCache = new BlockCache(BLOCK_CACHE_BYTES, client);
         ConsortiumOrg sampleOrg = testConfig.getIntegrationTestsSampleOrg("peerOrg1");
         Channel fooChannel = constructChannel(fooChannelName, client, sampleOrg);
         sampleStore.saveChannel(fooChannel);
@@ -124,19 +139,21 @@ public class FabricBusiness {
 
             ConsortiumUser admin = sampleStore.getMember(fabricAdminName, orgName);
             if (!admin.isEnrolled()) {  //Preregistered admin only needs to be enrolled with Fabric caClient.
-                admin.setEnrollment(ca.enroll(admin.getName(), "adminpw"));
-                admin.setMspId(mspid);
+                admin.edit().setEnrollment(ca.enroll(admin.getName(), "adminpw")).setMspId(mspid).commit();
             }
             sampleOrg.setAdmin(admin); // The admin of this org --
             ConsortiumUser user = sampleStore.getMember(fabricUser1Name, sampleOrg.getName());
+            ConsortiumUser.Editor userEditor = user.edit(); // register and enroll are stored with one write
+            String enrollmentSecret = user.getEnrollmentSecret();
             if (!user.isRegistered()) {  // users need to be registered AND enrolled
                 RegistrationRequest rr = new RegistrationRequest(user.getName(), "org1.department1");
-                user.setEnrollmentSecret(ca.register(rr, admin));
+                enrollmentSecret = ca.register(rr, admin);
+                userEditor.setEnrollmentSecret(enrollmentSecret);
             }
             if (!user.isEnrolled()) {
-                user.setEnrollment(ca.enroll(user.getName(), user.getEnrollmentSecret()));
-                user.setMspId(mspid);
+                userEditor.setEnrollment(ca.enroll(user.getName(), enrollmentSecret)).setMspId(mspid);
             }
+            userEditor.commit();
             sampleOrg.addUser(user); //Remember user belongs to this Org
             final String sampleOrgName = sampleOrg.getName();
             final String sampleOrgDomainName = sampleOrg.getDomainName();
@@ -179,6 +196,7 @@ public class FabricBusiness {
             Collection<ProposalResponse> responses;
             Collection<ProposalResponse> successful = new LinkedList<>();
             Collection<ProposalResponse> failed = new LinkedList<>();
+            String blockListenerHandle = channel.registerBlockListener(blockCache::put); //the new blocks are cached as they are committed
             String chaincodeEventListenerHandle = channel.registerChaincodeEventListener(Pattern.compile(".*"),
                     Pattern.compile(Pattern.quote(expectedEventName)),
                     (handle, blockEvent, chaincodeEvent) -> {
@@ -382,12 +400,13 @@ public class FabricBusiness {
             BlockchainInfo channelInfo = channel.queryBlockchainInfo();
             String chainCurrentHash = Hex.encodeHexString(channelInfo.getCurrentBlockHash());
             String chainPreviousHash = Hex.encodeHexString(channelInfo.getPreviousBlockHash());
-            BlockInfo returnedBlock = channel.queryBlockByNumber(channelInfo.getHeight() - 1);
+            BlockInfo returnedBlock = blockCache.getBlockByNumber(channel, channelInfo.getHeight() - 1);
             String previousHash = Hex.encodeHexString(returnedBlock.getPreviousHash());
             byte[] hashQuery = returnedBlock.getPreviousHash();
-            returnedBlock = channel.queryBlockByHash(hashQuery);
+            returnedBlock = blockCache.getBlockByHash(channel, hashQuery);
             returnedBlock = channel.queryBlockByTransactionID(testTxID);
             TransactionInfo txInfo = channel.queryTransactionByID(testTxID);
+            channel.unregisterBlockListener(blockListenerHandle);
             if (chaincodeEventListenerHandle != null) {
                 channel.unregisterChaincodeEventListener(chaincodeEventListenerHandle);
                 final int numberEventsExpected = channel.getEventHubs().size() +
@@ -473,10 +492,12 @@ public class FabricBusiness {
         //NOOP today
     }
     void blockWalker(HFClient client, Channel channel) throws InvalidArgumentException, ProposalException, IOException {
-        try {
-            BlockchainInfo channelInfo = channel.queryBlockchainInfo();
-            for (long current = channelInfo.getHeight() - 1; current > -1; --current) {
-                BlockInfo returnedBlock = channel.queryBlockByNumber(current);
+        BlockchainInfo channelInfo = channel.queryBlockchainInfo();
+        ExecutorService executor = Executors.newFixedThreadPool(BLOCK_WALKER_PREFETCH);
+        BlockRangeScanner scanner = new BlockRangeScanner(executor, BLOCK_WALKER_PREFETCH);
+        try (BlockRangeScanner.BlockIterator blocks = scanner.scan(BlockRangeScanner.peerSources(channel, channel.getPeers()), 0, channelInfo.getHeight())) {
+            while (blocks.hasNext()) {
+                BlockInfo returnedBlock = blocks.next();
                 final long blockNumber = returnedBlock.getBlockNumber();
                 final int envelopeCount = returnedBlock.getEnvelopeCount();
                 int i = 0;
@@ -531,6 +552,13 @@ public class FabricBusiness {
             }
         } catch (InvalidProtocolBufferRuntimeException e) {
             throw e.getCause();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ProposalException) {
+                throw (ProposalException) e.getCause();
+            }
+            throw new InvalidArgumentException(e.getCause());
+        } finally {
+            executor.shutdown();
         }
     }
 
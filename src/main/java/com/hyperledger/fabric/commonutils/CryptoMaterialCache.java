@@ -0,0 +1,231 @@
+/*
+ *  Copyright 2018, author All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.hyperledger.fabric.commonutils;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Shared cache of the parsed crypto material of the crypto-config tree:
+ * PEM private keys, PEM certificates, X.509 certificates and the {@code _sk} file of the keystore directories.
+ * An entry is reused as long as the modification time and the size of its file (or directory) are unchanged,
+ * the file is checked at most once per check interval.
+ */
+public class CryptoMaterialCache {
+    private static final Logger logger = LoggerFactory.getLogger(CryptoMaterialCache.class);
+    private static final CryptoMaterialCache DEFAULT = new CryptoMaterialCache(1000L);
+
+    private final long checkIntervalMillis;
+    private final Map<String, Material<PrivateKey>> privateKeys = new ConcurrentHashMap<>();
+    private final Map<String, Material<String>> pems = new ConcurrentHashMap<>();
+    private final Map<String, Material<X509Certificate>> certificates = new ConcurrentHashMap<>();
+    private final Map<String, Material<File>> secretKeyFiles = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    static {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * @param checkIntervalMillis the minimum time between two modification checks of a cached file
+     */
+    public CryptoMaterialCache(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * @return the cache shared by the whole application.
+     */
+    public static CryptoMaterialCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the private key of a PEM file.
+     *
+     * @param pemFile PEM encoded PKCS#8 or key pair file
+     * @return the private key
+     * @throws IOException
+     */
+    public PrivateKey getPrivateKey(File pemFile) throws IOException {
+        return get(privateKeys, pemFile, file -> parsePrivateKey(new String(Files.readAllBytes(file.toPath()), UTF_8)));
+    }
+
+    /**
+     * Get the text of a PEM file.
+     *
+     * @param pemFile PEM file
+     * @return the PEM text
+     * @throws IOException
+     */
+    public String getPem(File pemFile) throws IOException {
+        return get(pems, pemFile, file -> new String(Files.readAllBytes(file.toPath()), UTF_8));
+    }
+
+    /**
+     * Get the X.509 certificate of a PEM or DER file.
+     *
+     * @param certificateFile certificate file
+     * @return the certificate
+     * @throws IOException
+     */
+    public X509Certificate getCertificate(File certificateFile) throws IOException {
+        return get(certificates, certificateFile, file -> {
+            try {
+                return (X509Certificate) CertificateFactory.getInstance("X.509")
+                        .generateCertificate(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+            } catch (CertificateException e) {
+                throw new IOException(format("Could not parse the certificate %s", file.getAbsolutePath()), e);
+            }
+        });
+    }
+
+    /**
+     * Find the only {@code _sk} file of a keystore directory.
+     *
+     * @param directory the keystore directory
+     * @return the secret key file
+     */
+    public File findFileSk(File directory) {
+        try {
+            return get(secretKeyFiles, directory, CryptoMaterialCache::scanFileSk);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(format("Matches returned null does %s directory exist?", directory.getAbsoluteFile().getName()), e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse a PEM encoded private key.
+     *
+     * @param pem the PEM text
+     * @return the private key
+     * @throws IOException
+     */
+    public static PrivateKey parsePrivateKey(String pem) throws IOException {
+        try (PEMParser pemParser = new PEMParser(new StringReader(pem))) {
+            Object object = pemParser.readObject();
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+            if (object instanceof PrivateKeyInfo) {
+                return converter.getPrivateKey((PrivateKeyInfo) object);
+            }
+            if (object instanceof PEMKeyPair) {
+                return converter.getKeyPair((PEMKeyPair) object).getPrivate();
+            }
+            throw new IOException(format("Unexpected PEM object %s, a private key is required", null == object ? null : object.getClass().getName()));
+        }
+    }
+
+    private static File scanFileSk(File directory) {
+        File[] matches = directory.listFiles((dir, name) -> name.endsWith("_sk"));
+        if (null == matches) {
+            throw new RuntimeException(format("Matches returned null does %s directory exist?", directory.getAbsoluteFile().getName()));
+        }
+        if (matches.length != 1) {
+            throw new RuntimeException(format("Expected in %s only 1 sk file but found %d", directory.getAbsoluteFile().getName(), matches.length));
+        }
+        return matches[0];
+    }
+
+    private <T> T get(Map<String, Material<T>> cache, File file, Parser<T> parser) throws IOException {
+        String key = file.getAbsolutePath();
+        Material<T> material = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (null != material && now - material.checkedAt < checkIntervalMillis) {
+            hitCount.incrementAndGet();
+            return material.value;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (0L == lastModified && !file.exists()) {
+            cache.remove(key);
+            throw new FileNotFoundException(key);
+        }
+        if (null != material && material.lastModified == lastModified && material.length == length) {
+            material.checkedAt = now;
+            hitCount.incrementAndGet();
+            return material.value;
+        }
+        missCount.incrementAndGet();
+        if (null != material) {
+            logger.info("crypto material {} changed on disk, reload it", key);
+        }
+        T value = parser.parse(file);
+        cache.put(key, new Material<>(value, lastModified, length, now));
+        return value;
+    }
+
+    /**
+     * Drop all the cached material.
+     */
+    public void clear() {
+        privateKeys.clear();
+        pems.clear();
+        certificates.clear();
+        secretKeyFiles.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private interface Parser<T> {
+        T parse(File file) throws IOException;
+    }
+
+    private static final class Material<T> {
+        private final T value;
+        private final long lastModified;
+        private final long length;
+        private volatile long checkedAt;
+
+        Material(T value, long lastModified, long length, long checkedAt) {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
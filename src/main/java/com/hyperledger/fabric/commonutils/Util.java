@@ -27,8 +27,6 @@ import org.hyperledger.fabric.sdk.helper.Utils;
 import java.io.*;
 import java.util.Collection;
 
-import static java.lang.String.format;
-
 public class Util {
 
     /**
@@ -88,19 +86,15 @@ public class Util {
         return new ByteArrayInputStream(bos.toByteArray());
     }
 
+    /**
+     * Find the only {@code _sk} file of a keystore directory, resolved through the {@link CryptoMaterialCache}.
+     *
+     * @param directory the keystore directory
+     * @return the secret key file
+     */
     public static File findFileSk(File directory) {
 
-        File[] matches = directory.listFiles((dir, name) -> name.endsWith("_sk"));
-
-        if (null == matches) {
-            throw new RuntimeException(format("Matches returned null does %s directory exist?", directory.getAbsoluteFile().getName()));
-        }
-
-        if (matches.length != 1) {
-            throw new RuntimeException(format("Expected in %s only 1 sk file but found %d", directory.getAbsoluteFile().getName(), matches.length));
-        }
-
-        return matches[0];
+        return CryptoMaterialCache.getDefault().findFileSk(directory);
 
     }
 }
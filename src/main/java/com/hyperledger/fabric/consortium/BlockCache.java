@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.commons.codec.binary.Hex;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.SDKUtils;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * cache of the blocks of a channel by number and by hash. the blocks are kept serialized outside of the heap, in
+ * pages of direct buffers allocated up to a byte budget, and decoded again on each hit, so the cache doesn't grow
+ * the heap nor the garbage collection work whatever the size of the blocks.
+ * the least recently used blocks are evicted beyond the budget.
+ * <p>
+ * the committed blocks never change, so the cache is never invalidated. it subscribes to the
+ * {@link BlockEventPipeline} of its channel to hold the latest blocks before they are asked for.
+ * <p>
+ * the SDK builds a {@link BlockInfo} only internally: a hit calls its package-private constructor by reflection.
+ * without that constructor, see {@link #isSupported()}, or once it fails, the cache disables itself: every
+ * lookup is a miss queried from the peers, {@link #isEnabled()} turns {@code false} and the failure is logged as
+ * an error.
+ * <pre class="code">
+ *     BlockInfo block = blockCache.getBlockByNumber(channel, height - 1);
+ * </pre>
+ */
+public class BlockCache implements BlockSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(BlockCache.class);
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int CHUNK_PAGES = 256;
+    /**
+     * the SDK builds the {@link BlockInfo} of a block only internally.
+     */
+    private static final Constructor<BlockInfo> BLOCK_INFO_CONSTRUCTOR = blockInfoConstructor();
+
+    private final long maximumBytes;
+    private final HFClient client;
+    private final LinkedHashMap<Long,Entry> entries;
+    private final Map<String,Long> blockNumbers = new HashMap<String, Long>();
+    /**
+     * the direct buffers of {@link #CHUNK_PAGES} pages each, allocated when the free pages run out.
+     */
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private final Deque<Integer> freePages = new ArrayDeque<Integer>();
+    private long usedBytes;
+    private volatile boolean enabled = null != BLOCK_INFO_CONSTRUCTOR;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maximumBytes the maximum size of the blocks cached, rounded down to whole pages of 64 KB
+     * @param client the client hashing the block headers
+     */
+    public BlockCache(long maximumBytes, HFClient client){
+        this.maximumBytes = maximumBytes / PAGE_SIZE * PAGE_SIZE;
+        this.client = client;
+        this.entries = new LinkedHashMap<Long,Entry>(16,0.75f,true);
+    }
+
+    private static Constructor<BlockInfo> blockInfoConstructor(){
+        try{
+            Constructor<BlockInfo> constructor = BlockInfo.class.getDeclaredConstructor(Common.Block.class);
+            constructor.setAccessible(true);
+            return constructor;
+        }catch (NoSuchMethodException | RuntimeException ex){
+            logger.error("the SDK has no BlockInfo(Common.Block) constructor to decode the cached blocks, the block caches are disabled:{}",ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code false} if this SDK version can't rebuild the cached blocks, the caches are then always empty.
+     */
+    public static boolean isSupported(){
+        return null != BLOCK_INFO_CONSTRUCTOR;
+    }
+
+    /**
+     * the block of a number, from the cache or else queried from the channel and cached.
+     * @param channel the channel
+     * @param blockNumber the block number
+     * @return the block
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    public BlockInfo getBlockByNumber(Channel channel, long blockNumber) throws ProposalException, InvalidArgumentException {
+        BlockInfo block = get(blockNumber);
+        if(null == block){
+            block = channel.queryBlockByNumber(blockNumber);
+            put(block);
+        }
+        return block;
+    }
+
+    /**
+     * the block of a hash, from the cache or else queried from the channel and cached.
+     * @param channel the channel
+     * @param blockHash the hash of the block header
+     * @return the block
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    public BlockInfo getBlockByHash(Channel channel, byte[] blockHash) throws ProposalException, InvalidArgumentException {
+        BlockInfo block = getByHash(blockHash);
+        if(null == block){
+            block = channel.queryBlockByHash(blockHash);
+            put(block);
+        }
+        return block;
+    }
+
+    /**
+     * @param blockNumber the block number
+     * @return the cached block, or {@code null}
+     */
+    public BlockInfo get(long blockNumber){
+        byte[] bytes = enabled ? read(blockNumber) : null;
+        if(null == bytes){
+            missCount.incrementAndGet();
+            return null;
+        }
+        try{
+            BlockInfo block = BLOCK_INFO_CONSTRUCTOR.newInstance(Common.Block.parseFrom(bytes));
+            hitCount.incrementAndGet();
+            return block;
+        }catch (InvalidProtocolBufferException ex){
+            logger.warn("could not decode the cached block {}, drop it:{}",blockNumber,ex);
+            remove(blockNumber);
+            missCount.incrementAndGet();
+            return null;
+        }catch (ReflectiveOperationException | RuntimeException ex){
+            logger.error("the SDK could not rebuild the cached block {}, the block cache is disabled:{}",blockNumber,ex);
+            disable();
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * drop the cached blocks and stop caching, the direct buffers are kept for the life of the cache.
+     */
+    private synchronized void disable(){
+        enabled = false;
+        for(Entry entry : entries.values()){
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * @param blockHash the hash of the block header
+     * @return the cached block, or {@code null}
+     */
+    public BlockInfo getByHash(byte[] blockHash){
+        Long blockNumber;
+        synchronized (this){
+            blockNumber = blockNumbers.get(Hex.encodeHexString(blockHash));
+        }
+        if(null == blockNumber){
+            missCount.incrementAndGet();
+            return null;
+        }
+        return get(blockNumber);
+    }
+
+    /**
+     * cache a block, unless it is filtered or larger than the whole budget.
+     * @param block the block
+     */
+    public void put(BlockInfo block){
+        Common.Block raw = enabled ? block.getBlock() : null;
+        if(null == raw){
+            return;
+        }
+        long blockNumber = block.getBlockNumber();
+        String blockHash;
+        try{
+            blockHash = Hex.encodeHexString(SDKUtils.calculateBlockHash(client, blockNumber, block.getPreviousHash(), block.getDataHash()));
+        }catch (IOException | InvalidArgumentException ex){
+            logger.warn("could not hash the block {}, don't cache it:{}",blockNumber,ex);
+            return;
+        }
+        byte[] bytes = raw.toByteArray();
+        int pageCount = (bytes.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        if((long) pageCount * PAGE_SIZE > maximumBytes){
+            logger.debug("block {} of {} bytes exceeds the block cache",blockNumber,bytes.length);
+            return;
+        }
+        write(blockNumber, blockHash, bytes, pageCount);
+    }
+
+    private synchronized byte[] read(long blockNumber){
+        Entry entry = entries.get(blockNumber);
+        if(null == entry){
+            return null;
+        }
+        byte[] bytes = new byte[entry.size];
+        for(int i = 0, offset = 0; i < entry.pages.length; i++, offset += PAGE_SIZE){
+            ByteBuffer page = page(entry.pages[i]);
+            page.get(bytes, offset, Math.min(PAGE_SIZE, bytes.length - offset));
+        }
+        return bytes;
+    }
+
+    private synchronized void write(long blockNumber, String blockHash, byte[] bytes, int pageCount){
+        if(!enabled || entries.containsKey(blockNumber)){
+            return;
+        }
+        while(usedBytes + (long) pageCount * PAGE_SIZE > maximumBytes){
+            Iterator<Map.Entry<Long,Entry>> eldest = entries.entrySet().iterator();
+            Map.Entry<Long,Entry> evicted = eldest.next();
+            eldest.remove();
+            release(evicted.getValue());
+            evictionCount.incrementAndGet();
+        }
+        int[] pages = new int[pageCount];
+        for(int i = 0, offset = 0; i < pageCount; i++, offset += PAGE_SIZE){
+            pages[i] = allocatePage();
+            ByteBuffer page = page(pages[i]);
+            page.put(bytes, offset, Math.min(PAGE_SIZE, bytes.length - offset));
+        }
+        usedBytes += (long) pageCount * PAGE_SIZE;
+        entries.put(blockNumber,new Entry(blockHash,bytes.length,pages));
+        blockNumbers.put(blockHash,blockNumber);
+    }
+
+    private synchronized void remove(long blockNumber){
+        Entry entry = entries.remove(blockNumber);
+        if(null != entry){
+            release(entry);
+        }
+    }
+
+    private void release(Entry entry){
+        blockNumbers.remove(entry.blockHash);
+        for(int page : entry.pages){
+            freePages.push(page);
+        }
+        usedBytes -= (long) entry.pages.length * PAGE_SIZE;
+    }
+
+    private int allocatePage(){
+        if(freePages.isEmpty()){
+            int first = chunks.size() * CHUNK_PAGES;
+            long remaining = maximumBytes - (long) first * PAGE_SIZE;
+            int pages = (int) Math.min(CHUNK_PAGES, remaining / PAGE_SIZE);
+            chunks.add(ByteBuffer.allocateDirect(pages * PAGE_SIZE));
+            for(int i = pages - 1; i >= 0; i--){
+                freePages.push(first + i);
+            }
+        }
+        return freePages.pop();
+    }
+
+    /**
+     * @return a view of a page, positioned at its start
+     */
+    private ByteBuffer page(int page){
+        ByteBuffer view = chunks.get(page / CHUNK_PAGES).duplicate();
+        view.position((page % CHUNK_PAGES) * PAGE_SIZE);
+        return view;
+    }
+
+    /**
+     * cache the live blocks.
+     */
+    @Override
+    public void onBlock(DecodedBlock block){
+        put(block.getBlock());
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /**
+     * @return the bytes of the pages holding the cached blocks.
+     */
+    public synchronized long getUsedBytes(){
+        return usedBytes;
+    }
+
+    /**
+     * @return the bytes of direct memory allocated, never released.
+     */
+    public synchronized long getAllocatedBytes(){
+        long allocated = 0;
+        for(ByteBuffer chunk : chunks){
+            allocated += chunk.capacity();
+        }
+        return allocated;
+    }
+
+    /**
+     * @return {@code false} once the SDK failed to rebuild the cached blocks, nothing is cached anymore.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0 ? 1.0d : (double) hits / requests;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCache{enabled=%b, size=%d, usedBytes=%d, hitRatio=%.3f, hits=%d, misses=%d, evictions=%d}",
+                isEnabled(),size(),getUsedBytes(),getHitRatio(),getHitCount(),getMissCount(),getEvictionCount());
+    }
+
+    private static final class Entry {
+        private final String blockHash;
+        private final int size;
+        private final int[] pages;
+        Entry(String blockHash, int size, int[] pages){
+            this.blockHash = blockHash;
+            this.size = size;
+            this.pages = pages;
+        }
+    }
+}
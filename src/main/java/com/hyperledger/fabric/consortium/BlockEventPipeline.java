@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * fan-out of the block events of a channel. the SDK event thread only stores the {@link BlockEvent} into a
+ * bounded ring buffer, the blocks are decoded once into a {@link DecodedBlock} by a pool of decoder threads and
+ * each subscription reads the ring in order at its own cursor, on its own thread.
+ * <p>
+ * the publisher never waits: a subscription lagging more than the ring capacity behind is lapped, its missed
+ * blocks are reported to {@link BlockSubscriber#onMissed}, and a subscription more than half the ring behind is
+ * reported as slow. a slot is released once every subscription consumed its block, so the ring holds only the
+ * blocks of the lagging subscriptions.
+ * <pre class="code">
+ *     pipeline.subscribeChaincodeEvents("transfers", "mycc", Pattern.compile("transfer.*"), event -&gt; ...);
+ *     pipeline.subscribeWrites("ledger-mirror", "mycc", (transaction, write) -&gt; ...);
+ * </pre>
+ */
+public class BlockEventPipeline implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BlockEventPipeline.class);
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000L;
+
+    private final String name;
+    private final Entry[] entries;
+    private final int mask;
+    private final ExecutorService decoders;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /**
+     * the sequence of the next published block, guarded by the lock.
+     */
+    private long published;
+    /**
+     * the sequence below which the slots are released, guarded by the lock.
+     */
+    private long released;
+    private volatile boolean closed;
+
+    private final AtomicLong decodeFailureCount = new AtomicLong();
+
+    /**
+     * @param name the pipeline name, the channel name
+     * @param capacity the number of blocks kept in the ring, rounded up to a power of two
+     * @param decodeThreads the number of threads decoding the blocks
+     */
+    public BlockEventPipeline(String name, int capacity, int decodeThreads) {
+        this.name = name;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        AtomicInteger count = new AtomicInteger();
+        this.decoders = Executors.newFixedThreadPool(decodeThreads, runnable -> {
+            Thread thread = new Thread(runnable, "blocks-decode-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * hand a block event to the pipeline, called by the SDK event thread.
+     * @param event the block event
+     */
+    public void publish(BlockEvent event) {
+        if (closed || subscriptions.isEmpty()) {
+            return;
+        }
+        Entry entry;
+        lock.lock();
+        try {
+            entry = new Entry(published++, event);
+            entries[(int) entry.sequence & mask] = entry;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            decoders.execute(() -> decode(entry));
+        } catch (RejectedExecutionException ex) {
+            logger.debug("the pipeline {} is closed, drop the block {}", name, event.getBlockNumber());
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.checkLag(entry.sequence + 1);
+        }
+    }
+
+    private void decode(Entry entry) {
+        if (!isBuffered(entry)) {
+            //lapped before it was decoded, the subscriptions will skip it
+            return;
+        }
+        DecodedBlock block = null;
+        try {
+            block = DecodedBlock.decode(entry.event);
+        } catch (Exception ex) {
+            decodeFailureCount.incrementAndGet();
+            logger.warn("could not decode the block {} of {}:{}", entry.event.getBlockNumber(), name, ex);
+        }
+        lock.lock();
+        try {
+            entry.block = block;
+            entry.decoded = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isBuffered(Entry entry) {
+        lock.lock();
+        try {
+            return entries[(int) entry.sequence & mask] == entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drop the blocks every subscription consumed from the ring.
+     */
+    private void releaseConsumed() {
+        lock.lock();
+        try {
+            long consumed = published;
+            for (Subscription subscription : subscriptions) {
+                consumed = Math.min(consumed, subscription.cursor);
+            }
+            for (long sequence = Math.max(released, consumed - entries.length); sequence < consumed; sequence++) {
+                Entry entry = entries[(int) sequence & mask];
+                if (null != entry && entry.sequence == sequence) {
+                    entries[(int) sequence & mask] = null;
+                }
+            }
+            released = Math.max(released, consumed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * subscribe to the blocks published from now on.
+     * @param subscriptionName the subscription name, used by the logs and the thread name
+     * @param subscriber the subscriber
+     * @return the subscription
+     */
+    public Subscription subscribe(String subscriptionName, BlockSubscriber subscriber) {
+        if (closed) {
+            throw new IllegalStateException("the block event pipeline " + name + " is closed");
+        }
+        Subscription subscription;
+        lock.lock();
+        try {
+            subscription = new Subscription(subscriptionName, subscriber, published);
+            subscriptions.add(subscription);
+        } finally {
+            lock.unlock();
+        }
+        subscription.thread = new Thread(subscription::run, "blocks-" + name + "-" + subscriptionName);
+        subscription.thread.setDaemon(true);
+        subscription.thread.start();
+        logger.info("subscribed {} to the blocks of {}", subscriptionName, name);
+        return subscription;
+    }
+
+    /**
+     * subscribe to the transactions of the blocks accepted by a filter.
+     */
+    public Subscription subscribeTransactions(String subscriptionName, Predicate<DecodedBlock.Transaction> filter,
+                                              Consumer<DecodedBlock.Transaction> consumer) {
+        return subscribe(subscriptionName, block -> {
+            for (DecodedBlock.Transaction transaction : block.getTransactions()) {
+                if (filter.test(transaction)) {
+                    consumer.accept(transaction);
+                }
+            }
+        });
+    }
+
+    /**
+     * subscribe to the chaincode events of the valid transactions.
+     * @param chaincodeId the chaincode emitting the events
+     * @param eventName the pattern the event names must match
+     */
+    public Subscription subscribeChaincodeEvents(String subscriptionName, String chaincodeId, Pattern eventName,
+                                                 Consumer<ChaincodeEvent> consumer) {
+        return subscribe(subscriptionName, block -> {
+            for (DecodedBlock.Transaction transaction : block.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
+                for (ChaincodeEvent event : transaction.getChaincodeEvents()) {
+                    if (chaincodeId.equals(event.getChaincodeId()) && eventName.matcher(event.getEventName()).matches()) {
+                        consumer.accept(event);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * subscribe to the writes of the valid transactions to a namespace.
+     * @param namespace the chaincode name
+     */
+    public Subscription subscribeWrites(String subscriptionName, String namespace,
+                                        BiConsumer<DecodedBlock.Transaction, DecodedBlock.Write> consumer) {
+        return subscribe(subscriptionName, block -> {
+            for (DecodedBlock.Transaction transaction : block.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
+                for (DecodedBlock.Write write : transaction.getWrites()) {
+                    if (namespace.equals(write.getNamespace())) {
+                        consumer.accept(transaction, write);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of blocks published.
+     */
+    public long getPublishedCount() {
+        lock.lock();
+        try {
+            return published;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDecodeFailureCount() {
+        return decodeFailureCount.get();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return new ArrayList<>(subscriptions);
+    }
+
+    /**
+     * stop the decoders and the subscriptions, the blocks not delivered yet are dropped.
+     * waits a little for the subscribers to finish their current block.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        decoders.shutdownNow();
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Subscription subscription : subscriptions) {
+            Thread thread = subscription.thread;
+            try {
+                if (null != thread) {
+                    thread.join(CLOSE_TIMEOUT_MILLIS);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockEventPipeline{name=" + name + ", published=" + getPublishedCount() + ", subscriptions=" + subscriptions + "}";
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final BlockEvent event;
+        /**
+         * the decoded block, {@code null} if it could not be decoded, guarded by the lock.
+         */
+        private DecodedBlock block;
+        private boolean decoded;
+
+        Entry(long sequence, BlockEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    /**
+     * the cursor of a subscriber in the ring.
+     */
+    public final class Subscription {
+        private final String name;
+        private final BlockSubscriber subscriber;
+        private volatile long cursor;
+        private volatile boolean cancelled;
+        private volatile boolean slow;
+        private volatile Thread thread;
+
+        private final AtomicLong deliveredCount = new AtomicLong();
+        private final AtomicLong missedCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+
+        Subscription(String name, BlockSubscriber subscriber, long cursor) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        private void run() {
+            try {
+                subscriber.onSubscribed();
+            } catch (RuntimeException ex) {
+                logger.error("subscriber {} failed to start:{}", name, ex);
+            }
+            try {
+                consume();
+            } finally {
+                try {
+                    subscriber.onClosed();
+                } catch (RuntimeException ex) {
+                    logger.error("subscriber {} failed to close:{}", name, ex);
+                }
+            }
+        }
+
+        private void consume() {
+            while (!cancelled && !closed) {
+                Entry entry = null;
+                long missed = 0;
+                lock.lock();
+                try {
+                    if (cancelled || closed) {
+                        //the slot at the cursor may be released already
+                        return;
+                    }
+                    long oldest = Math.max(0L, published - entries.length);
+                    if (cursor < oldest) {
+                        missed = oldest - cursor;
+                        cursor = oldest;
+                    } else if (cursor < published && entries[(int) cursor & mask].decoded) {
+                        entry = entries[(int) cursor & mask];
+                    } else {
+                        changed.await();
+                        continue;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+                if (missed > 0) {
+                    logger.warn("subscriber {} of {} was lapped and missed {} blocks", name, BlockEventPipeline.this.name, missed);
+                    missed(missed);
+                    continue;
+                }
+                if (null == entry.block) {
+                    missed(1L);
+                } else {
+                    deliver(entry.block);
+                }
+                cursor = entry.sequence + 1;
+                releaseConsumed();
+            }
+        }
+
+        private void deliver(DecodedBlock block) {
+            try {
+                subscriber.onBlock(block);
+                deliveredCount.incrementAndGet();
+            } catch (Exception ex) {
+                failureCount.incrementAndGet();
+                logger.error("subscriber {} failed on the block {}:{}", name, block.getBlockNumber(), ex);
+            }
+        }
+
+        private void missed(long count) {
+            missedCount.addAndGet(count);
+            try {
+                subscriber.onMissed(count);
+            } catch (RuntimeException ex) {
+                logger.error("subscriber {} failed on {} missed blocks:{}", name, count, ex);
+            }
+        }
+
+        /**
+         * report the subscription once when it falls half the ring behind, again after it caught up.
+         */
+        private void checkLag(long head) {
+            long lag = head - cursor;
+            if (!slow && lag > entries.length / 2) {
+                slow = true;
+                logger.warn("subscriber {} of {} is slow, {} blocks behind", name, BlockEventPipeline.this.name, lag);
+            } else if (slow && lag < entries.length / 4) {
+                slow = false;
+                logger.info("subscriber {} of {} caught up", name, BlockEventPipeline.this.name);
+            }
+        }
+
+        /**
+         * stop the delivery to the subscriber.
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            releaseConsumed();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of blocks published but not consumed yet.
+         */
+        public long getLag() {
+            return getPublishedCount() - cursor;
+        }
+
+        public boolean isSlow() {
+            return slow;
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount.get();
+        }
+
+        public long getMissedCount() {
+            return missedCount.get();
+        }
+
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Subscription{name=" + name + ", lag=" + getLag() + ", delivered=" + getDeliveredCount()
+                    + ", missed=" + getMissedCount() + ", failures=" + getFailureCount() + "}";
+        }
+    }
+}
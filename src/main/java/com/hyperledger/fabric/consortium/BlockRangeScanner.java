@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * reads a range of blocks with up to {@code prefetch} queries in flight, spread over the peers: block {@code n}
+ * is asked to the source {@code n % sources} first, then to the next ones if it fails. the blocks are returned in
+ * order and at most {@code prefetch} of them are held at once, whatever the size of the range.
+ * <pre class="code">
+ *     try (BlockRangeScanner.BlockIterator blocks = scanner.scan(sources, 0, height)) {
+ *         while (blocks.hasNext()) {
+ *             BlockInfo block = blocks.next();
+ *         }
+ *     }
+ * </pre>
+ */
+public class BlockRangeScanner {
+    private static final Logger logger = LoggerFactory.getLogger(BlockRangeScanner.class);
+
+    private final Executor executor;
+    private final int prefetch;
+
+    private final AtomicLong fetchedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * @param executor runs the queries
+     * @param prefetch the maximum number of blocks queried ahead of the consumer
+     */
+    public BlockRangeScanner(Executor executor, int prefetch) {
+        this.executor = executor;
+        this.prefetch = Math.max(1, prefetch);
+    }
+
+    /**
+     * the sources querying each of the given peers of a channel.
+     * @param channel the channel
+     * @param peers the peers of the channel, the preferred first
+     * @return a source per peer
+     */
+    public static List<BlockSource> peerSources(Channel channel, Collection<Peer> peers) {
+        List<BlockSource> sources = new ArrayList<>(peers.size());
+        for (Peer peer : peers) {
+            sources.add(new BlockSource() {
+                @Override
+                public long getHeight() throws ProposalException, InvalidArgumentException {
+                    return channel.queryBlockchainInfo(peer).getHeight();
+                }
+                @Override
+                public BlockInfo getBlock(long blockNumber) throws ProposalException, InvalidArgumentException {
+                    return channel.queryBlockByNumber(peer, blockNumber);
+                }
+            });
+        }
+        return sources;
+    }
+
+    /**
+     * @param sources the sources of the blocks, at least one
+     * @param from the first block number
+     * @param to the block number after the last one
+     * @return the blocks from {@code from} to {@code to} excluded, in order, to be closed if not read to the end
+     */
+    public BlockIterator scan(List<? extends BlockSource> sources, long from, long to) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("no source to scan the blocks from");
+        }
+        return new BlockIterator(new ArrayList<>(sources), from, to);
+    }
+
+    /**
+     * the blocks of {@link #scan} as a sequential stream, closing it releases the queries in flight.
+     */
+    public Stream<BlockInfo> stream(List<? extends BlockSource> sources, long from, long to) {
+        BlockIterator blocks = scan(sources, from, to);
+        return StreamSupport.stream(Spliterators.spliterator(blocks, Math.max(0L, to - from),
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(blocks::close);
+    }
+
+    private BlockInfo fetch(List<BlockSource> sources, long blockNumber) {
+        Exception failure = null;
+        for (int attempt = 0; attempt < sources.size(); attempt++) {
+            BlockSource source = sources.get((int) ((blockNumber + attempt) % sources.size()));
+            try {
+                BlockInfo block = source.getBlock(blockNumber);
+                fetchedCount.incrementAndGet();
+                return block;
+            } catch (ProposalException | InvalidArgumentException ex) {
+                failure = ex;
+                retryCount.incrementAndGet();
+                logger.debug("could not query the block {}, try the next peer:{}", blockNumber, ex);
+            }
+        }
+        throw new CompletionException(failure);
+    }
+
+    /**
+     * @return the number of blocks queried.
+     */
+    public long getFetchedCount() {
+        return fetchedCount.get();
+    }
+
+    /**
+     * @return the number of queries failed over to another peer.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * the blocks of a range, queried ahead of the consumer. not thread safe.
+     */
+    public final class BlockIterator implements Iterator<BlockInfo>, Closeable {
+        private final List<BlockSource> sources;
+        private final long to;
+        private final ArrayDeque<CompletableFuture<BlockInfo>> window = new ArrayDeque<>();
+        private long nextToFetch;
+        private boolean closed;
+
+        BlockIterator(List<BlockSource> sources, long from, long to) {
+            this.sources = sources;
+            this.to = to;
+            this.nextToFetch = from;
+            fill();
+        }
+
+        private void fill() {
+            while (!closed && window.size() < prefetch && nextToFetch < to) {
+                long blockNumber = nextToFetch++;
+                window.add(CompletableFuture.supplyAsync(() -> fetch(sources, blockNumber), executor));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && !window.isEmpty();
+        }
+
+        /**
+         * @return the next block
+         * @throws CompletionException if no peer could return the block, the iterator is closed
+         */
+        @Override
+        public BlockInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CompletableFuture<BlockInfo> block = window.poll();
+            fill();
+            try {
+                return block.join();
+            } catch (CompletionException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        /**
+         * cancel the queries not consumed yet.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            for (CompletableFuture<BlockInfo> block : window) {
+                block.cancel(false);
+            }
+            window.clear();
+        }
+    }
+}
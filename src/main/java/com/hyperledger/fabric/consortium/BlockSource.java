@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+import java.util.Collections;
+
+/**
+ * the blocks of a channel queried from its peers, to catch up with the blocks the event stream didn't deliver.
+ */
+public interface BlockSource {
+    /**
+     * @return the number of blocks of the channel.
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    long getHeight() throws ProposalException, InvalidArgumentException;
+
+    /**
+     * @param blockNumber the block number
+     * @return the block
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    BlockInfo getBlock(long blockNumber) throws ProposalException, InvalidArgumentException;
+
+    /**
+     * the blocks of a range, one query at a time unless the source scans them in parallel.
+     * @param from the first block number
+     * @param to the block number after the last one
+     * @return the blocks in order, to be closed if not read to the end
+     */
+    default BlockRangeScanner.BlockIterator getBlocks(long from, long to) {
+        return new BlockRangeScanner(Runnable::run, 1).scan(Collections.singletonList(this), from, to);
+    }
+}
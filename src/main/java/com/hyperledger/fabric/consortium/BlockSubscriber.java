@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+/**
+ * a consumer of the blocks of a {@link BlockEventPipeline}. each subscriber gets the blocks in order on its own
+ * thread, so a slow subscriber delays only itself.
+ */
+public interface BlockSubscriber {
+    /**
+     * called on the subscription thread before the first block.
+     */
+    default void onSubscribed() {
+    }
+
+    /**
+     * @param block the next committed block
+     * @throws Exception logged and counted, the next block is delivered anyway
+     */
+    void onBlock(DecodedBlock block) throws Exception;
+
+    /**
+     * called instead of {@link #onBlock} for the blocks the subscriber won't get: overwritten in the ring buffer
+     * before it consumed them, or not decodable.
+     * @param count the number of blocks missed
+     */
+    default void onMissed(long count) {
+    }
+
+    /**
+     * called by a {@link CheckpointedSubscriber} before it records the blocks up to {@code blockNumber} as
+     * processed, to make their effects durable first.
+     * @param blockNumber the last block processed
+     * @throws Exception the checkpoint is not recorded, it is tried again at the next one
+     */
+    default void onCheckpoint(long blockNumber) throws Exception {
+    }
+
+    /**
+     * called on the subscription thread after the last block, once the subscription is cancelled or the pipeline closed.
+     */
+    default void onClosed() {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * the proposal requests of a chaincode. everything but the function and its arguments is built once:
+ * the chaincode id and the transient maps are immutable and shared by all the requests.
+ */
+final class ChaincodeRequests {
+    static final Map<String, byte[]> TRANSACTION_TRANSIENT_MAP = transientMap("TransactionProposalRequest", ":)");
+    static final Map<String, byte[]> QUERY_TRANSIENT_MAP = transientMap("QueryByChaincodeRequest", null);
+
+    private final HFClient client;
+    private final ChaincodeID chaincodeID;
+
+    ChaincodeRequests(HFClient client, ChaincodeID chaincodeID) {
+        this.client = client;
+        this.chaincodeID = chaincodeID;
+    }
+
+    private static Map<String, byte[]> transientMap(String method, String result) {
+        Map<String, byte[]> map = new HashMap<>(4);
+        map.put("HyperLedgerFabric", (method + ":JavaSDK").getBytes(UTF_8));
+        map.put("method", method.getBytes(UTF_8));
+        if (null != result) {
+            map.put("result", result.getBytes(UTF_8));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    TransactionProposalRequest newTransactionProposal(String fcn, String[] args) throws InvalidArgumentException {
+        TransactionProposalRequest request = client.newTransactionProposalRequest();
+        request.setChaincodeID(chaincodeID);
+        request.setFcn(fcn);
+        request.setArgs(args);
+        request.setTransientMap(TRANSACTION_TRANSIENT_MAP);
+        return request;
+    }
+
+    QueryByChaincodeRequest newQuery(String fcn, String[] args) throws InvalidArgumentException {
+        QueryByChaincodeRequest request = client.newQueryProposalRequest();
+        request.setChaincodeID(chaincodeID);
+        request.setFcn(fcn);
+        request.setArgs(args);
+        request.setTransientMap(QUERY_TRANSIENT_MAP);
+        return request;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the outcome of {@link ConsortiumChaincodeManager#invoke} and {@link ConsortiumChaincodeManager#query}:
+ * the payload of the chaincode on success, the reason of the failure otherwise.
+ */
+public final class ChaincodeResult {
+    public enum Code {
+        SUCCESS,
+        ERROR
+    }
+
+    private final Code code;
+    private final String data;
+
+    private ChaincodeResult(Code code, String data) {
+        this.code = code;
+        this.data = data;
+    }
+
+    public static ChaincodeResult success(String payload) {
+        return new ChaincodeResult(Code.SUCCESS, payload);
+    }
+
+    public static ChaincodeResult error(String message) {
+        return new ChaincodeResult(Code.ERROR, message);
+    }
+
+    public Code getCode() {
+        return code;
+    }
+
+    public boolean isSuccess() {
+        return code == Code.SUCCESS;
+    }
+
+    /**
+     * @return the payload on success, the error message otherwise.
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * @return the result as the {@code code}/{@code data} map the manager used to return.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> resultMap = new HashMap<>(4);
+        resultMap.put("code", isSuccess() ? "success" : "error");
+        resultMap.put("data", data);
+        return resultMap;
+    }
+
+    @Override
+    public String toString() {
+        return "ChaincodeResult{code=" + code + ", data=" + data + "}";
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a {@link BlockSubscriber} resuming after a restart from the last block it fully processed. the block number is
+ * saved into the {@link ConsortiumStore} per channel and subscriber, at most once per checkpoint interval and
+ * when the subscription closes.
+ * <p>
+ * on start the blocks from the checkpoint up to the height of the channel are scanned from the peers, while the
+ * live blocks wait in the ring buffer; the live blocks already delivered are skipped and the gaps of the live
+ * stream, missed blocks included, are filled from the peers, so the subscriber gets every block once and in order.
+ * after a crash the blocks processed since the last checkpoint are delivered again.
+ * a block the subscriber fails on is not checkpointed and is delivered again with the next live block, once a
+ * backoff growing from one second to a minute has elapsed; the live blocks of the backoff are caught up afterwards.
+ * a subscriber may instead skip a block after a number of failures in a row: the block is reported through
+ * {@link BlockSubscriber#onMissed} and the next ones are delivered, but the checkpoint stays before the first block
+ * skipped, so it is delivered again after a restart.
+ * the subscriber is told through {@link BlockSubscriber#onCheckpoint} before each checkpoint, to make its state durable.
+ */
+public class CheckpointedSubscriber implements BlockSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointedSubscriber.class);
+    private static final long MIN_RETRY_BACKOFF_MILLIS = 1000L;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 60000L;
+
+    private final String channelName;
+    private final String name;
+    private final BlockSubscriber subscriber;
+    private final ConsortiumStore consortiumStore;
+    private final BlockSource blockSource;
+    private final long checkpointIntervalNanos;
+    /**
+     * the number of failures in a row after which a block is skipped, {@code 0} to retry it forever.
+     */
+    private final int maxBlockFailures;
+    /**
+     * the number of the next block to deliver, {@code -1} to start from the first live block.
+     */
+    private volatile long next;
+    private volatile long checkpoint;
+    private long checkpointedAt = System.nanoTime();
+    private volatile long caughtUpCount;
+    /**
+     * the number of failures in a row on the next block.
+     */
+    private int blockFailures;
+    /**
+     * the {@link System#nanoTime()} before which the failed block is not delivered again.
+     */
+    private long retryAt;
+    /**
+     * the first block skipped, {@code -1} if none: the checkpoint never moves past it.
+     */
+    private volatile long firstSkipped = -1L;
+    private volatile long skippedCount;
+
+    /**
+     * @param channelName the channel name
+     * @param name the subscriber name, the key of its checkpoint
+     * @param subscriber the subscriber
+     * @param consortiumStore the store of the checkpoints
+     * @param blockSource the blocks of the channel
+     * @param firstBlock the block to start from without a checkpoint, {@code -1} for the live blocks only
+     * @param checkpointIntervalMillis the minimum time between two checkpoints
+     */
+    public CheckpointedSubscriber(String channelName, String name, BlockSubscriber subscriber, ConsortiumStore consortiumStore,
+                                  BlockSource blockSource, long firstBlock, long checkpointIntervalMillis) {
+        this(channelName, name, subscriber, consortiumStore, blockSource, firstBlock, checkpointIntervalMillis, 0);
+    }
+
+    /**
+     * @param maxBlockFailures the number of failures in a row after which a block is skipped, {@code 0} to retry it forever
+     */
+    public CheckpointedSubscriber(String channelName, String name, BlockSubscriber subscriber, ConsortiumStore consortiumStore,
+                                  BlockSource blockSource, long firstBlock, long checkpointIntervalMillis, int maxBlockFailures) {
+        this.channelName = channelName;
+        this.name = name;
+        this.subscriber = subscriber;
+        this.consortiumStore = consortiumStore;
+        this.blockSource = blockSource;
+        this.checkpointIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMillis);
+        this.maxBlockFailures = maxBlockFailures;
+        this.checkpoint = consortiumStore.getCheckpoint(channelName, name);
+        this.next = checkpoint >= 0 ? checkpoint + 1 : firstBlock;
+    }
+
+    @Override
+    public void onSubscribed() {
+        subscriber.onSubscribed();
+        if (next < 0) {
+            return;
+        }
+        try {
+            long height = blockSource.getHeight();
+            logger.info("subscriber {} of {} resumes from block {}, {} blocks to catch up", name, channelName, next, Math.max(0L, height - next));
+            catchUp(height);
+        } catch (Exception ex) {
+            logger.warn("subscriber {} of {} could not catch up from block {}, retry with the next block:{}", name, channelName, next, ex);
+        }
+    }
+
+    @Override
+    public void onBlock(DecodedBlock block) throws Exception {
+        long blockNumber = block.getBlockNumber();
+        if (next < 0) {
+            next = blockNumber;
+        }
+        if (blockNumber < next) {
+            //already delivered by the catch up
+            return;
+        }
+        if (blockFailures > 0 && System.nanoTime() - retryAt < 0) {
+            //the block failed lately, it is caught up with a later live block
+            return;
+        }
+        catchUp(blockNumber);
+        deliver(block);
+    }
+
+    @Override
+    public void onMissed(long count) {
+        logger.debug("subscriber {} of {} missed {} live blocks, they are queried with the next block", name, channelName, count);
+    }
+
+    @Override
+    public void onClosed() {
+        saveCheckpoint();
+        subscriber.onClosed();
+    }
+
+    /**
+     * deliver the blocks from the next one up to {@code until} excluded, queried from the peers.
+     */
+    private void catchUp(long until) throws Exception {
+        if (next >= until) {
+            return;
+        }
+        try (BlockRangeScanner.BlockIterator blocks = blockSource.getBlocks(next, until)) {
+            while (blocks.hasNext()) {
+                deliver(DecodedBlock.decode(blocks.next()));
+                caughtUpCount++;
+            }
+        }
+    }
+
+    private void deliver(DecodedBlock block) throws Exception {
+        try {
+            subscriber.onBlock(block);
+            blockFailures = 0;
+        } catch (Exception ex) {
+            blockFailures++;
+            if (0 == maxBlockFailures || blockFailures < maxBlockFailures) {
+                long backoffMillis = Math.min(MAX_RETRY_BACKOFF_MILLIS, MIN_RETRY_BACKOFF_MILLIS << Math.min(blockFailures - 1, 16));
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+                logger.warn("subscriber {} of {} failed {} times on block {}, retry in {} ms", name, channelName, blockFailures, block.getBlockNumber(), backoffMillis);
+                throw ex;
+            }
+            logger.error("subscriber {} of {} failed {} times on block {}, skip it, the checkpoint stays before block {}:{}",
+                    name, channelName, blockFailures, block.getBlockNumber(), firstSkipped < 0 ? block.getBlockNumber() : firstSkipped, ex);
+            blockFailures = 0;
+            if (firstSkipped < 0) {
+                firstSkipped = block.getBlockNumber();
+            }
+            skippedCount++;
+            try {
+                subscriber.onMissed(1L);
+            } catch (RuntimeException missedEx) {
+                logger.error("subscriber {} of {} failed on the skipped block {}:{}", name, channelName, block.getBlockNumber(), missedEx);
+            }
+        }
+        next = block.getBlockNumber() + 1;
+        if (System.nanoTime() - checkpointedAt >= checkpointIntervalNanos) {
+            saveCheckpoint();
+        }
+    }
+
+    private void saveCheckpoint() {
+        long processed = firstSkipped < 0 ? next - 1 : Math.min(next, firstSkipped) - 1;
+        if (processed > checkpoint) {
+            try {
+                subscriber.onCheckpoint(processed);
+                consortiumStore.saveCheckpoint(channelName, name, processed);
+                checkpoint = processed;
+            } catch (Exception ex) {
+                logger.warn("subscriber {} of {} could not checkpoint block {}:{}", name, channelName, processed, ex);
+            }
+        }
+        checkpointedAt = System.nanoTime();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the last checkpointed block, {@code -1} before the first checkpoint.
+     */
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return the number of the next block to deliver.
+     */
+    public long getNextBlockNumber() {
+        return next;
+    }
+
+    /**
+     * @return the number of blocks queried from the peers instead of the live stream.
+     */
+    public long getCaughtUpCount() {
+        return caughtUpCount;
+    }
+
+    /**
+     * @return the number of blocks skipped after the maximum number of failures.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CheckpointedSubscriber{channel=" + channelName + ", name=" + name + ", next=" + next
+                + ", checkpoint=" + checkpoint + ", caughtUp=" + caughtUpCount + ", skipped=" + skippedCount + "}";
+    }
+}
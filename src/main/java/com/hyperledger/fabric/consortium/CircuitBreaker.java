@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * circuit breaker of a peer or an orderer. after {@code failureThreshold} consecutive failures the endpoint is
+ * ejected ({@link State#OPEN}) for {@code openMillis}, then a single probe request is let through
+ * ({@link State#HALF_OPEN}): its success closes the circuit, its failure opens it again.
+ * a probe not reported within {@code openMillis} is given up and another one is let through.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+    private boolean probing;
+
+    private long openCount;
+    private long rejectedCount;
+    private long transitionCount;
+
+    /**
+     * @param name the endpoint name
+     * @param failureThreshold the number of consecutive failures opening the circuit
+     * @param openMillis the time the endpoint stays ejected before it is probed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis){
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * ask to send a request to the endpoint.
+     * @return {@link State#CLOSED} if the request may be sent, {@link State#HALF_OPEN} if it is the probe
+     * of an ejected endpoint and {@link State#OPEN} if it must not be sent
+     */
+    public synchronized State acquire(){
+        long now = System.nanoTime();
+        switch (state){
+            case CLOSED:
+                return State.CLOSED;
+            case OPEN:
+                if(now - openedAt >= openNanos){
+                    transition(State.HALF_OPEN);
+                    return probe(now);
+                }
+                rejectedCount++;
+                return State.OPEN;
+            default:
+                if(!probing || now - probeStartedAt >= openNanos){
+                    return probe(now);
+                }
+                rejectedCount++;
+                return State.OPEN;
+        }
+    }
+
+    private State probe(long now){
+        probing = true;
+        probeStartedAt = now;
+        return State.HALF_OPEN;
+    }
+
+    public synchronized void onSuccess(){
+        consecutiveFailures = 0;
+        probing = false;
+        if(state != State.CLOSED){
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void onFailure(){
+        consecutiveFailures++;
+        probing = false;
+        if(state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)){
+            openedAt = System.nanoTime();
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State next){
+        if(next == State.OPEN){
+            openCount++;
+            logger.warn("endpoint {} failed {} times in a row, eject it for {} ms",name,consecutiveFailures,TimeUnit.NANOSECONDS.toMillis(openNanos));
+        }else if(next == State.HALF_OPEN){
+            logger.info("probe the ejected endpoint {}",name);
+        }else{
+            logger.info("endpoint {} recovered",name);
+        }
+        state = next;
+        transitionCount++;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of times the circuit was opened.
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return the number of requests not sent because the circuit was open.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized long getTransitionCount() {
+        return transitionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CircuitBreaker{name=%s, state=%s, consecutiveFailures=%d, opened=%d, rejected=%d}",
+                name,state,consecutiveFailures,openCount,rejectedCount);
+    }
+}
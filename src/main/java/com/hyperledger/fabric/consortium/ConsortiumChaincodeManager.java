@@ -3,7 +3,7 @@
  */
 package com.hyperledger.fabric.consortium;
 
-import com.google.protobuf.ByteString;
+import com.hyperledger.fabric.commonutils.CryptoMaterialCache;
 import com.hyperledger.fabric.components.Chaincode;
 import com.hyperledger.fabric.components.Orderers;
 import com.hyperledger.fabric.components.Peers;
@@ -11,19 +11,48 @@ import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.exception.TransactionEventException;
 import org.hyperledger.fabric.sdk.exception.TransactionException;
-import org.hyperledger.fabric.sdk.security.CryptoSuite;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
-import static org.apache.commons.codec.CharEncoding.UTF_8;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * @author: jate  Date: 2018/3/19 Time: 11:17
@@ -36,35 +65,335 @@ public class ConsortiumChaincodeManager {
     private Chaincode chaincode;
 
     private HFClient hfClient;
+    private ConsortiumStore consortiumStore;
     private ConsortiumOrg consortiumOrg;
-    private Channel channel;
-    private ChaincodeID chaincodeID;
+    /**
+     * {@code true} if the manager created its gateway and closes the consortium store on shutdown.
+     */
+    private final boolean ownsGateway;
+    private volatile Channel channel;
+    /**
+     * set by {@link #shutdown()}, a background validation still running releases the channel it builds.
+     */
+    private volatile boolean shutdown;
+    /**
+     * completed with the initialized channel, at once on a cold start and by the background validation on a warm start.
+     */
+    private CompletableFuture<Channel> channelReady;
+    /**
+     * builds the proposal requests of each chaincode from its prebuilt chaincode id and the transient maps.
+     */
+    private final Map<String, ChaincodeRequests> requests = new ConcurrentHashMap<>();
+    private long startupMillis;
+    private volatile long channelReadyMillis;
+    private boolean warmStart;
+    /**
+     * sends the proposals and broadcasts of {@link #invokeAsync}, so that the callers never wait for the peers.
+     */
+    private final ExecutorService invokeExecutor;
+    /**
+     * runs the single peer queries, so that a slow peer can be hedged.
+     */
+    private final ExecutorService queryExecutor;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    private final AtomicLong hedgedQueryCount = new AtomicLong();
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    /**
+     * selects the endorsers of each chaincode from its endorsement policy, empty to ask all the peers.
+     */
+    private final Map<String, Optional<EndorserSelector>> endorserSelectors = new ConcurrentHashMap<>();
+    private final AtomicLong endorserFallbackCount = new AtomicLong();
+    /**
+     * the query results, evicted by the writes of the committed blocks, {@code null} if disabled.
+     */
+    private final QueryResultCache queryCache;
+    /**
+     * the block events of the channel, decoded off the SDK event thread and fanned out to the subscribers.
+     */
+    private final BlockEventPipeline blockEvents;
+    /**
+     * the blocks of the channel queried from its peers, the ranges are scanned in parallel over the peers, the fastest first.
+     */
+    private final BlockSource blockSource = new BlockSource() {
+        @Override
+        public long getHeight() throws ProposalException, InvalidArgumentException {
+            return readyChannel().queryBlockchainInfo().getHeight();
+        }
+        @Override
+        public BlockInfo getBlock(long blockNumber) throws ProposalException, InvalidArgumentException {
+            return queryBlockByNumber(blockNumber);
+        }
+        @Override
+        public BlockRangeScanner.BlockIterator getBlocks(long from, long to) {
+            Channel channel = readyChannel();
+            return blockScanner.scan(BlockRangeScanner.peerSources(channel, latencyTracker.rank(channel.getPeers(), Peer::getName)), from, to);
+        }
+    };
+    private final BlockRangeScanner blockScanner;
+    /**
+     * the blocks queried by number or hash and the live blocks, kept off the heap, {@code null} if disabled.
+     */
+    private final BlockCache blockCache;
+    /**
+     * the local index of the committed transactions, fed by the blocks from its checkpoint, {@code null} if disabled.
+     */
+    private final TransactionIndex transactionIndex;
 
     public ConsortiumChaincodeManager(ConsortiumConfig consortiumConfig)
             throws CryptoException, InvalidArgumentException, IOException, NoSuchMethodException, RuntimeException, TransactionException, ClassNotFoundException, InvocationTargetException, InstantiationException, IllegalAccessException {
-        this.consortiumConfig = consortiumConfig;
+        this(new ConsortiumGateway(consortiumConfig), consortiumConfig.getChaincode(), true);
+    }
+    /**
+     * the manager of a channel of a gateway, sharing its client, org and store.
+     * @param gateway the gateway
+     * @param chaincode the channel and its default chaincode
+     * @param ownsGateway {@code true} to close the store of the gateway on shutdown
+     */
+    ConsortiumChaincodeManager(ConsortiumGateway gateway, Chaincode chaincode, boolean ownsGateway) throws InvalidArgumentException, TransactionException {
+        this.consortiumConfig = gateway.getConfig();
         this.orderers = consortiumConfig.getOrderers();
         this.peers = consortiumConfig.getPeers();
-        chaincode = consortiumConfig.getChaincode();
-        hfClient = HFClient.createNewInstance();
-        logger.debug("Create instance of HFClient");
-        hfClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
-        logger.debug("Set Crypto Suite of HFClient");
-        consortiumOrg = getConsortiumOrg();
-        channel = getChannel();
-        chaincodeID = getChaincodeID();
-        hfClient.setUserContext(consortiumOrg.getPeerAdmin());
-    }
-    private ChaincodeID getChaincodeID() {
-        return ChaincodeID.newBuilder().setName(chaincode.getChaincodeName()).setVersion(chaincode.getChaincodeVersion()).setPath(chaincode.getChaincodePath()).build();
+        this.chaincode = chaincode;
+        this.ownsGateway = ownsGateway;
+        blockEvents = new BlockEventPipeline(chaincode.getChannelName(), consortiumConfig.getBlockEventBufferSize(), consortiumConfig.getBlockEventDecodeThreads());
+        queryCache = consortiumConfig.getQueryCacheSize() > 0
+                ? new QueryResultCache(consortiumConfig.getQueryCacheSize(), consortiumConfig.getQueryCacheExcludedFunctions()) : null;
+        if (null != queryCache) {
+            blockEvents.subscribe("query-cache", queryCache);
+        }
+        invokeExecutor = Executors.newFixedThreadPool(consortiumConfig.getInvokeThreads(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "invoke-" + chaincode.getChannelName() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        queryExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "query-" + chaincode.getChannelName() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        blockScanner = new BlockRangeScanner(queryExecutor, consortiumConfig.getBlockScanPrefetch());
+        hfClient = gateway.getClient();
+        consortiumOrg = gateway.getConsortiumOrg();
+        consortiumStore = gateway.getConsortiumStore();
+        if (consortiumConfig.getBlockCacheBytes() > 0 && !BlockCache.isSupported()) {
+            logger.error("blockCacheBytes is set but this SDK can't rebuild the cached blocks, the block cache of {} is disabled", chaincode.getChannelName());
+        }
+        blockCache = consortiumConfig.getBlockCacheBytes() > 0 && BlockCache.isSupported()
+                ? new BlockCache(consortiumConfig.getBlockCacheBytes(), hfClient) : null;
+        if (null != blockCache) {
+            blockEvents.subscribe("block-cache", blockCache);
+        }
+        long start = System.nanoTime();
+        channel = restoreChannel();
+        warmStart = null != channel;
+        if (warmStart) {
+            final Channel restored = channel;
+            channelReady = CompletableFuture.supplyAsync(() -> validateRestoredChannel(restored, start), WARM_START_EXECUTOR);
+        } else {
+            channel = getChannel();
+            saveChannelSnapshot(channel);
+            channelReady = CompletableFuture.completedFuture(channel);
+            channelReadyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("channel {} {} start took {} ms", chaincode.getChannelName(), warmStart ? "warm" : "cold", startupMillis);
+        transactionIndex = openTransactionIndex();
+        if (null != transactionIndex) {
+            //a new index is backfilled from the first block
+            subscribeFromCheckpoint("transaction-index", transactionIndex, 0L);
+        }
+    }
+    private static final ScheduledThreadPoolExecutor INVOKE_TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "invoke-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        //drop the timeouts of the committed transactions at once instead of keeping them until they expire
+        INVOKE_TIMER.setRemoveOnCancelPolicy(true);
+    }
+    private static final Executor WARM_START_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "channel-warm-start");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * restore the channel from its snapshot, without initializing it.
+     * @return the restored channel, or {@code null} if there is no usable snapshot
+     */
+    private Channel restoreChannel() {
+        File snapshot = getChannelSnapshotFile();
+        if (null == snapshot || !snapshot.isFile()) {
+            return null;
+        }
+        try {
+            Channel restored = hfClient.deSerializeChannel(Files.readAllBytes(snapshot.toPath()));
+            logger.info("restored channel {} from the snapshot {}", restored.getName(), snapshot);
+            return restored;
+        } catch (Exception ex) {
+            logger.warn("could not restore the channel from the snapshot {}, fall back to a cold start,ex={}", snapshot, ex);
+            return null;
+        }
+    }
+    /**
+     * initialize a channel restored from its snapshot in the background,
+     * rebuild it from the configuration if the snapshot turns out to be stale.
+     */
+    private Channel validateRestoredChannel(Channel restored, long start) {
+        Channel ready;
+        try {
+            restored.initialize();
+            releaseIfShutdown(restored);
+            registerChannelListeners(restored);
+            ready = restored;
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            logger.warn("the snapshot of channel {} is stale, rebuild the channel,ex={}", restored.getName(), ex);
+            restored.shutdown(true);
+            try {
+                ready = getChannel();
+                releaseIfShutdown(ready);
+                saveChannelSnapshot(ready);
+            } catch (InvalidArgumentException | TransactionException e) {
+                throw new CompletionException(e);
+            }
+        }
+        channel = ready;
+        //shutdown() may have read the previous channel before this one was published
+        releaseIfShutdown(ready);
+        channelReadyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("channel {} validated in the background, ready {} ms after start", ready.getName(), channelReadyMillis);
+        return ready;
+    }
+    /**
+     * shut a channel built in the background down if the manager was shut down meanwhile.
+     * @throws CancellationException if the manager is shut down
+     */
+    private void releaseIfShutdown(Channel built) {
+        if (shutdown) {
+            if (!built.isShutdown()) {
+                built.shutdown(true);
+            }
+            throw new CancellationException(String.format("channel %s was shut down during its validation", built.getName()));
+        }
+    }
+    /**
+     * write the serialized channel into its snapshot file, through a temporary file and an atomic rename.
+     */
+    private void saveChannelSnapshot(Channel channel) {
+        File snapshot = getChannelSnapshotFile();
+        if (null == snapshot) {
+            return;
+        }
+        try {
+            Files.createDirectories(snapshot.getAbsoluteFile().getParentFile().toPath());
+            Path temp = Files.createTempFile(snapshot.getAbsoluteFile().getParentFile().toPath(), snapshot.getName(), ".tmp");
+            Files.write(temp, channel.serializeChannel());
+            Files.move(temp, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("saved the snapshot of channel {} into {}", channel.getName(), snapshot);
+        } catch (IOException | InvalidArgumentException ex) {
+            logger.warn("could not save the snapshot of channel {},ex={}", channel.getName(), ex);
+        }
+    }
+    private File getChannelSnapshotFile() {
+        String snapshotPath = consortiumConfig.getChannelSnapshotPath();
+        return null == snapshotPath ? null : Paths.get(snapshotPath, chaincode.getChannelName() + ".channel").toFile();
+    }
+    private TransactionIndex openTransactionIndex() {
+        String indexPath = consortiumConfig.getTransactionIndexPath();
+        if (null == indexPath) {
+            return null;
+        }
+        try {
+            return new TransactionIndex(Paths.get(indexPath, chaincode.getChannelName()).toFile(), consortiumConfig.getTransactionIndexFlushThreshold());
+        } catch (IOException ex) {
+            logger.warn("could not open the transaction index of {}, the transactions are looked up on the peers:{}", chaincode.getChannelName(), ex);
+            return null;
+        }
+    }
+    /**
+     * the initialized channel, waits for the background validation of a warm start if it is still running.
+     */
+    private Channel readyChannel() {
+        Channel ready = channelReady.getNow(null);
+        return null != ready ? ready : channelReady.join();
+    }
+    /**
+     * release the channel and its gRPC connections, and flush the consortium store if the manager owns its gateway.
+     * the manager can't be used afterwards.
+     */
+    public void shutdown() {
+        shutdown = true;
+        logger.info("shutdown the channel {}", chaincode.getChannelName());
+        channelReady.cancel(false);
+        invokeExecutor.shutdown();
+        queryExecutor.shutdown();
+        blockEvents.close();
+        if (null != transactionIndex) {
+            transactionIndex.close();
+        }
+        Channel current = channel;
+        if (null != current && !current.isShutdown()) {
+            current.shutdown(true);
+        }
+        if (ownsGateway && null != consortiumStore) {
+            consortiumStore.close();
+        }
+    }
+    public String getChannelName() {
+        return chaincode.getChannelName();
+    }
+    /**
+     * @return the name of the default chaincode of the channel.
+     */
+    public String getChaincodeName() {
+        return chaincode.getChaincodeName();
+    }
+    /**
+     * @return {@code true} if the channel was restored from its snapshot.
+     */
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+    /**
+     * @return the time spent in the constructor.
+     */
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+    /**
+     * @return the time from the start until the channel was initialized, {@code 0} while it is not.
+     */
+    public long getChannelReadyMillis() {
+        return channelReadyMillis;
+    }
+    /**
+     * the requests of a chaincode, the configured chaincode is identified by its version and path too.
+     */
+    private ChaincodeRequests requests(String chaincodeName) {
+        return requests.computeIfAbsent(chaincodeName, name -> {
+            ChaincodeID.Builder chaincodeID = ChaincodeID.newBuilder().setName(name);
+            if (name.equals(chaincode.getChaincodeName())) {
+                chaincodeID.setVersion(chaincode.getChaincodeVersion()).setPath(chaincode.getChaincodePath());
+            }
+            return new ChaincodeRequests(hfClient, chaincodeID.build());
+        });
     }
     private Channel getChannel() throws InvalidArgumentException, TransactionException {
-        hfClient.setUserContext(consortiumOrg.getPeerAdmin());
         return getChannel(consortiumOrg,hfClient);
     }
     private Channel getChannel(ConsortiumOrg consortiumOrg, HFClient hfClient) throws InvalidArgumentException, TransactionException {
-        Channel channel = hfClient.newChannel(chaincode.getChaincodeName());
-        logger.debug("Get Chain :{}",chaincode.getChaincodeName());
+        Channel channel = hfClient.newChannel(chaincode.getChannelName());
+        logger.debug("Get Chain :{}",chaincode.getChannelName());
         //channel.setTransactionWaitTime(chaincode.getInvokeWatiTime());
         //channel.setDeployWaitTime(chaincode.getDeployWatiTime());
         for(int i=0; i<peers.get().size();i++){
@@ -74,11 +403,8 @@ public class ConsortiumChaincodeManager {
             //                      /root/fabric-samples/first-network/crypto-config/peerOrganizations/org2.example.com/peers/peer1.org2.example.com/tls
             File peerCert = Paths.get(consortiumConfig.getCryptoConfigPath(),"/peerOrganizations",
                     peers.getOrgDomainName(),"peers",peers.get().get(i).getPeerDomainName(),"tls/server.crt").toFile();
-            if(!peerCert.exists()){
-                throw new RuntimeException(String.format("Missing cert file for: %s. Could not find at location: %s",peers.get().get(i).getPeerDomainName(),peerCert.getAbsolutePath()));
-            }
             Properties peerProperties = new Properties();
-            peerProperties.setProperty("pemFile", peerCert.getAbsolutePath());
+            peerProperties.put("pemBytes", certificateBytes(peers.get().get(i).getPeerDomainName(),peerCert));
             peerProperties.setProperty("hostnameOverride", peers.getOrgDomainName());
             peerProperties.setProperty("sslProvider", "openSSL");
             peerProperties.setProperty("negotiationType", "TLS");
@@ -94,17 +420,13 @@ public class ConsortiumChaincodeManager {
             File ordererCert = Paths.get(consortiumConfig.getCryptoConfigPath(), "/ordererOrganizations",
                     orderers.getOrdererDomainName(), "orderers", orderers.get().get(i).getOrdererName(),
                     "tls/server.crt").toFile();
-            if (!ordererCert.exists()) {
-                throw new RuntimeException(
-                        String.format("Missing cert file for: %s. Could not find at location: %s", orderers.get().get(i).getOrdererName(), ordererCert.getAbsolutePath()));
-            }
             Properties ordererProperties = new Properties();
-            ordererProperties.setProperty("pemFile", ordererCert.getAbsolutePath());
+            ordererProperties.put("pemBytes", certificateBytes(orderers.get().get(i).getOrdererName(), ordererCert));
             ordererProperties.setProperty("hostnameOverride", orderers.getOrdererDomainName());
             ordererProperties.setProperty("sslProvider", "openSSL");
             ordererProperties.setProperty("negotiationType", "TLS");
             ordererProperties.put("grpc.ManagedChannelBuilderOption.maxInboundMessageSize", 9000000);
-            ordererProperties.setProperty("ordererWaitTimeMilliSecs", "300000");
+            ordererProperties.setProperty("ordererWaitTimeMilliSecs", Long.toString(consortiumConfig.getOrdererWaitTimeMillis()));
             channel.addOrderer(
                     hfClient.newOrderer(orderers.get().get(i).getOrdererName(), consortiumOrg.getOrdererLocation(orderers.get().get(i).getOrdererName()), ordererProperties));
         }
@@ -112,34 +434,66 @@ public class ConsortiumChaincodeManager {
         if (!channel.isInitialized()) {
             channel.initialize();
         }
-        if (consortiumConfig.isRegisterEvent()) {
-            channel.registerBlockListener(new BlockListener() {
-                @Override
-                public void received(BlockEvent event) {
-                    ByteString byteString = event.getBlock().getData().getData(0);
-                    String result = byteString.toStringUtf8();
-                    String r1[] = result.split("END CERTIFICATE");
-                    String rr = r1[2];
-                }
-            });
-        }
+        registerChannelListeners(channel);
         return channel;
     }
+    private void registerChannelListeners(Channel channel) throws InvalidArgumentException {
+        if (null != queryCache) {
+            //the results read before the channel (re)connected may be stale
+            queryCache.invalidateAll();
+        }
+        if (!isBlockEventsNeeded()) {
+            logger.debug("no block event consumer on {}, the block listener is not registered", chaincode.getChannelName());
+            return;
+        }
+        //the SDK event thread only hands the block to the pipeline
+        channel.registerBlockListener(blockEvents::publish);
+    }
     /**
-     * get the consortium org instance.
+     * @return {@code true} if the block events are asked for by {@link ConsortiumConfig#isRegisterEvent()}, or
+     * consumed by the query cache, the block cache or the transaction index.
+     */
+    private boolean isBlockEventsNeeded() {
+        return consortiumConfig.isRegisterEvent() || null != queryCache || null != blockCache
+                || null != consortiumConfig.getTransactionIndexPath();
+    }
+    /**
+     * the TLS certificate of an endpoint from the shared {@link CryptoMaterialCache}, handed to the SDK as
+     * {@code pemBytes} so that neither the starts nor the reconnects read the file again.
+     * @param name the peer or orderer name
+     * @param certificate the certificate file
+     * @return the PEM bytes of the certificate
+     */
+    private byte[] certificateBytes(String name, File certificate) {
+        try {
+            X509Certificate x509Certificate = CryptoMaterialCache.getDefault().getCertificate(certificate);
+            try {
+                x509Certificate.checkValidity();
+            } catch (CertificateExpiredException | CertificateNotYetValidException ex) {
+                logger.warn("the TLS certificate of {} is not valid, the connection will fail:{}", name, ex);
+            }
+            return CryptoMaterialCache.getDefault().getPem(certificate).getBytes(UTF_8);
+        } catch (FileNotFoundException ex) {
+            throw new RuntimeException(String.format("Missing cert file for: %s. Could not find at location: %s", name, certificate.getAbsolutePath()), ex);
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not read cert file for: %s at location: %s", name, certificate.getAbsolutePath()), ex);
+        }
+    }
+    /**
+     * invoke method, returns once the proposal is endorsed and sent to the orderers, without waiting for the commit.
+     * @param fcn
+     * @param args
      * @return
-     * @throws IOException
-     * @throws NoSuchMethodException
+     * @throws UnsupportedEncodingException
+     * @throws InvalidArgumentException
+     * @throws ProposalException
      */
-    private ConsortiumOrg getConsortiumOrg() throws IOException, NoSuchMethodException {
-        File storeFile = new File("/root/fabric-samples/first-network/firstnetwork.properties");
-        ConsortiumStore consortiumStore = new ConsortiumStore(storeFile);
-        ConsortiumOrg org = new ConsortiumOrg(peers,orderers,consortiumStore,consortiumConfig.getCryptoConfigPath());
-        logger.debug("Get FabricOrg");
-        return org;
+    public ChaincodeResult invoke(String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
+        return invoke(chaincode.getChaincodeName(), fcn, args);
     }
     /**
-     * invoke method
+     * invoke a chaincode of the channel, returns once the proposal is endorsed and sent to the orderers.
+     * @param chaincodeName the chaincode
      * @param fcn
      * @param args
      * @return
@@ -147,56 +501,281 @@ public class ConsortiumChaincodeManager {
      * @throws InvalidArgumentException
      * @throws ProposalException
      */
-    public Map<String, String> invoke(String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
-        Map<String, String> resultMap = new HashMap<>();
-        Collection<ProposalResponse> successful = new LinkedList<>();
-        Collection<ProposalResponse> failed = new LinkedList<>();
-        TransactionProposalRequest transactionProposalRequest = hfClient.newTransactionProposalRequest();
-        transactionProposalRequest.setChaincodeID(chaincodeID);
-        transactionProposalRequest.setFcn(fcn);
-        transactionProposalRequest.setArgs(args);
-        Map<String, byte[]> tm2 = new HashMap<>();
-        tm2.put("HyperLedgerFabric", "TransactionProposalRequest:JavaSDK".getBytes(UTF_8));
-        tm2.put("method", "TransactionProposalRequest".getBytes(UTF_8));
-        tm2.put("result", ":)".getBytes(UTF_8));
-        transactionProposalRequest.setTransientMap(tm2);
-        Collection<ProposalResponse> transactionPropResp = channel.sendTransactionProposal(transactionProposalRequest, channel.getPeers());
+    public ChaincodeResult invoke(String chaincodeName, String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
+        Channel channel = readyChannel();
+        Collection<ProposalResponse> transactionPropResp = sendTransactionProposal(channel, newTransactionProposalRequest(chaincodeName, fcn, args), chaincodeName, fcn, args);
         for (ProposalResponse response : transactionPropResp) {
-            if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
-                successful.add(response);
-            } else {
-                failed.add(response);
+            if (response.getStatus() != ProposalResponse.Status.SUCCESS) {
+                logger.error("Not enough endorsers for inspect, endorser error: {}. Was verified: {}", response.getMessage(), response.isVerified());
+                return ChaincodeResult.error(response.getMessage());
             }
         }
-        Collection<Set<ProposalResponse>> proposalConsistencySets = SDKUtils.getProposalConsistencySets(transactionPropResp);
-        if (proposalConsistencySets.size() != 1) {
-            logger.error("Expected only one set of consistent proposal responses but got {}",proposalConsistencySets.size());
+        int consistencySets = SDKUtils.getProposalConsistencySets(transactionPropResp).size();
+        if (consistencySets != 1) {
+            logger.error("Expected only one set of consistent proposal responses but got {}", consistencySets);
         }
-        if (failed.size() > 0) {
-            ProposalResponse firstTransactionProposalResponse = failed.iterator().next();
-            logger.error("Not enough endorsers for inspect:" + failed.size() + " endorser error: " + firstTransactionProposalResponse.getMessage() + ". Was verified: "
-                    + firstTransactionProposalResponse.isVerified());
-            resultMap.put("code", "error");
-            resultMap.put("data", firstTransactionProposalResponse.getMessage());
-            return resultMap;
-        } else {
-            logger.info("Successfully received transaction proposal responses.");
-            ProposalResponse resp = transactionPropResp.iterator().next();
-            byte[] x = resp.getChaincodeActionResponsePayload();
-            String resultAsString = null;
-            if (x != null) {
-                resultAsString = new String(x, "UTF-8");
+        logger.debug("Successfully received transaction proposal responses.");
+        byte[] x = transactionPropResp.iterator().next().getChaincodeActionResponsePayload();
+        String resultAsString = null == x ? null : new String(x, UTF_8);
+        channel.sendTransaction(transactionPropResp);
+        return ChaincodeResult.success(resultAsString);
+    }
+
+    /**
+     * invoke the chaincode without blocking the caller: the proposal and the broadcast run on the invoke
+     * executor and the future completes when the transaction event of the commit is received, or when the
+     * invoke wait time of the chaincode elapses.
+     * @param fcn
+     * @param args
+     * @return the future of the committed transaction, completed exceptionally with a {@link ProposalException}
+     * if an endorser refused the proposal
+     */
+    public CompletableFuture<InvokeResult> invokeAsync(String fcn, String[] args) {
+        return invokeAsync(chaincode.getChaincodeName(), fcn, args);
+    }
+    /**
+     * invoke a chaincode of the channel without blocking the caller, see {@link #invokeAsync(String, String[])}.
+     * @param chaincodeName the chaincode
+     * @param fcn
+     * @param args
+     * @return the future of the committed transaction
+     */
+    public CompletableFuture<InvokeResult> invokeAsync(String chaincodeName, String fcn, String[] args) {
+        CompletableFuture<InvokeResult> result = new CompletableFuture<>();
+        try {
+            invokeExecutor.execute(() -> {
+                try {
+                    send(endorse(chaincodeName, fcn, args)).whenComplete((r, ex) -> {
+                        if (null == ex) {
+                            result.complete(r);
+                        } else {
+                            result.completeExceptionally(ex);
+                        }
+                    });
+                } catch (Exception ex) {
+                    logger.error("invoke of {} failed:{}", fcn, ex);
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+    /**
+     * create a {@link TransactionSubmitter} keeping up to {@code maxInFlight} transactions of this chaincode
+     * between endorsement and commit.
+     * @param maxInFlight the size of the in-flight window
+     * @param endorseThreads the number of proposals sent at once
+     * @param broadcastThreads the number of broadcasts sent to the orderers at once
+     * @return the submitter, to be closed by the caller
+     */
+    public TransactionSubmitter<Endorsement> newTransactionSubmitter(int maxInFlight, int endorseThreads, int broadcastThreads) {
+        return newTransactionSubmitter(chaincode.getChaincodeName(), maxInFlight, endorseThreads, broadcastThreads);
+    }
+    /**
+     * create a {@link TransactionSubmitter} of a chaincode of the channel.
+     * @param chaincodeName the chaincode
+     * @param maxInFlight the size of the in-flight window
+     * @param endorseThreads the number of proposals sent at once
+     * @param broadcastThreads the number of broadcasts sent to the orderers at once
+     * @return the submitter, to be closed by the caller
+     */
+    public TransactionSubmitter<Endorsement> newTransactionSubmitter(String chaincodeName, int maxInFlight, int endorseThreads, int broadcastThreads) {
+        return new TransactionSubmitter<>(chaincodeName, new TransactionSubmitter.Stages<Endorsement>() {
+            @Override
+            public Endorsement endorse(String fcn, String[] args) throws Exception {
+                return ConsortiumChaincodeManager.this.endorse(chaincodeName, fcn, args);
+            }
+            @Override
+            public CompletableFuture<InvokeResult> broadcast(Endorsement endorsement) {
+                return send(endorsement);
+            }
+        }, maxInFlight, endorseThreads, broadcastThreads);
+    }
+    /**
+     * send the transaction proposal to the peers of the channel and wait for consistent endorsements.
+     * @param fcn
+     * @param args
+     * @return the endorsement
+     * @throws ProposalException if an endorser refused the proposal or the responses are inconsistent
+     * @throws InvalidArgumentException
+     */
+    Endorsement endorse(String chaincodeName, String fcn, String[] args) throws ProposalException, InvalidArgumentException {
+        Channel channel = readyChannel();
+        Collection<ProposalResponse> responses = sendTransactionProposal(channel, newTransactionProposalRequest(chaincodeName, fcn, args), chaincodeName, fcn, args);
+        for (ProposalResponse response : responses) {
+            if (response.getStatus() != ProposalResponse.Status.SUCCESS) {
+                throw new ProposalException(String.format("endorser %s refused the proposal of %s: %s. Was verified: %s",
+                        response.getPeer().getName(), fcn, response.getMessage(), response.isVerified()));
+            }
+        }
+        if (SDKUtils.getProposalConsistencySets(responses).size() != 1) {
+            throw new ProposalException(String.format("inconsistent proposal responses of %s", fcn));
+        }
+        ProposalResponse first = responses.iterator().next();
+        byte[] x = first.getChaincodeActionResponsePayload();
+        return new Endorsement(responses, first.getTransactionID(), null == x ? null : new String(x, UTF_8));
+    }
+    /**
+     * broadcast an endorsed transaction to the orderers.
+     * @param endorsement the endorsement
+     * @return the future completed by the transaction event of the commit, or by a {@link TimeoutException}
+     * after the adaptive deadline of the orderer, at most the invoke wait time of the chaincode
+     */
+    CompletableFuture<InvokeResult> send(Endorsement endorsement) {
+        CompletableFuture<InvokeResult> result = new CompletableFuture<>();
+        String transactionId = endorsement.getTransactionId();
+        Channel channel = readyChannel();
+        List<Orderer> orderers = rankAvailable(channel.getOrderers(), Orderer::getName);
+        if (orderers.isEmpty()) {
+            result.completeExceptionally(new IllegalStateException(String.format("channel %s has no orderer", channel.getName())));
+            return result;
+        }
+        long deadlineMillis = getDeadlineMillis(orderers.get(0).getName(), chaincode.getInvokeWatiTime());
+        broadcast(channel, endorsement, orderers, 0, result);
+        ScheduledFuture<?> timeout = INVOKE_TIMER.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException(String.format("transaction %s was not committed within %d ms",
+                    transactionId, deadlineMillis)))) {
+                logger.warn("transaction {} timed out", transactionId);
+            }
+        }, deadlineMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((r, ex) -> timeout.cancel(false));
+        return result;
+    }
+    /**
+     * broadcast the transaction to one orderer, to the next one if it fails.
+     */
+    private void broadcast(Channel channel, Endorsement endorsement, List<Orderer> orderers, int index, CompletableFuture<InvokeResult> result) {
+        Orderer orderer = orderers.get(index);
+        String transactionId = endorsement.getTransactionId();
+        long start = System.nanoTime();
+        channel.sendTransaction(endorsement.responses, Collections.singletonList(orderer)).whenComplete((event, ex) -> {
+            Throwable cause = ex instanceof CompletionException && null != ex.getCause() ? ex.getCause() : ex;
+            if (null == ex || (cause instanceof TransactionEventException && null != ((TransactionEventException) cause).getTransactionEvent())) {
+                latencyTracker.record(orderer.getName(), System.nanoTime() - start);
+                circuitBreaker(orderer.getName()).onSuccess();
+                //an invalidated transaction is committed too, the validation code tells why
+                result.complete(new InvokeResult(transactionId, endorsement.getPayload(),
+                        null == ex ? event : ((TransactionEventException) cause).getTransactionEvent()));
+                return;
+            }
+            if (result.isDone()) {
+                //timed out already
+                return;
+            }
+            latencyTracker.recordFailure(orderer.getName());
+            circuitBreaker(orderer.getName()).onFailure();
+            if (index + 1 < orderers.size()) {
+                logger.warn("orderer {} failed the broadcast of {}, try {}", orderer.getName(), transactionId, orderers.get(index + 1).getName());
+                broadcast(channel, endorsement, orderers, index + 1, result);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+    /**
+     * send a transaction proposal to the endorsers selected by the endorsement policy. if one of them doesn't answer
+     * the proposal is sent again, to a selection without the failed peers or else to all the other peers. a peer
+     * answering with an error, like a chaincode error, would fail the same on the other peers, it isn't retried.
+     * without an endorsement policy the proposal goes to all the peers of the channel.
+     */
+    private Collection<ProposalResponse> sendTransactionProposal(Channel channel, TransactionProposalRequest request, String chaincodeName, String fcn, String[] args)
+            throws ProposalException, InvalidArgumentException {
+        Collection<Peer> peers = channel.getPeers();
+        List<Peer> endorsers = selectEndorsers(chaincodeName, peers);
+        if (null == endorsers) {
+            return sendTransactionProposal(channel, request, peers);
+        }
+        Collection<ProposalResponse> responses = sendTransactionProposal(channel, request, endorsers);
+        Set<Peer> failed = new HashSet<>();
+        for (ProposalResponse response : responses) {
+            if (response.getStatus() != ProposalResponse.Status.SUCCESS) {
+                if (null != response.getProposalResponse()) {
+                    //the peer executed the proposal and refused it
+                    return responses;
+                }
+                failed.add(response.getPeer());
             }
-            logger.info("resultAsString = " + resultAsString);
-            channel.sendTransaction(successful);
-            resultMap.put("code", "success");
-            resultMap.put("data", resultAsString);
-            return resultMap;
         }
+        if (failed.isEmpty()) {
+            return responses;
+        }
+        List<Peer> candidates = new ArrayList<>(peers);
+        candidates.removeAll(failed);
+        List<Peer> fallback = selectEndorsers(chaincodeName, candidates);
+        if (null == fallback) {
+            fallback = candidates;
+        }
+        if (fallback.isEmpty()) {
+            return responses;
+        }
+        endorserFallbackCount.incrementAndGet();
+        logger.warn("endorsers {} failed the proposal of {}, fall back to {}", failed, fcn, fallback);
+        return sendTransactionProposal(channel, newTransactionProposalRequest(chaincodeName, fcn, args), fallback);
+    }
+    /**
+     * send the proposal with the largest adaptive deadline of the endorsers and record their answers.
+     */
+    private Collection<ProposalResponse> sendTransactionProposal(Channel channel, TransactionProposalRequest request, Collection<Peer> endorsers)
+            throws ProposalException, InvalidArgumentException {
+        long deadlineMillis = 0L;
+        for (Peer endorser : endorsers) {
+            deadlineMillis = Math.max(deadlineMillis, getDeadlineMillis(endorser.getName(), consortiumConfig.getProposalWaitTimeMillis()));
+        }
+        request.setProposalWaitTime(deadlineMillis);
+        long start = System.nanoTime();
+        Collection<ProposalResponse> responses = channel.sendTransactionProposal(request, endorsers);
+        long elapsed = System.nanoTime() - start;
+        for (ProposalResponse response : responses) {
+            //the latency of a peer is only known when it is asked alone
+            recordPeer(response.getPeer(), response, endorsers.size() == 1 ? elapsed : -1L);
+        }
+        return responses;
+    }
+    /**
+     * @return the smallest set of the fastest peers satisfying the endorsement policy, or {@code null}
+     * without a policy or if the peers can't satisfy it.
+     */
+    private List<Peer> selectEndorsers(String chaincodeName, Collection<Peer> peers) {
+        EndorserSelector endorserSelector = endorserSelectors.computeIfAbsent(chaincodeName, this::getEndorserSelector).orElse(null);
+        if (null == endorserSelector) {
+            return null;
+        }
+        return endorserSelector.select(rankAvailable(peers, Peer::getName), Peer::getName);
+    }
+    private Optional<EndorserSelector> getEndorserSelector(String chaincodeName) {
+        String policyFile = consortiumConfig.getEndorsementPolicyFile(chaincodeName);
+        if (null == policyFile) {
+            return Optional.empty();
+        }
+        Map<String, String> mspIds = new HashMap<>();
+        for (Peers.Peer peer : peers.get()) {
+            mspIds.put(peer.getPeerDomainName(), peers.getOrgMSPID());
+        }
+        mspIds.putAll(consortiumConfig.getPeerMspIds());
+        try {
+            return Optional.of(EndorserSelector.fromYamlFile(new File(policyFile), mspIds));
+        } catch (IOException ex) {
+            logger.warn("could not load the endorsement policy {}, send the proposals to all the peers,ex={}", policyFile, ex);
+            return Optional.empty();
+        }
+    }
+    /**
+     * @return the number of proposals sent again to other endorsers after a failure.
+     */
+    public long getEndorserFallbackCount() {
+        return endorserFallbackCount.get();
+    }
+    private TransactionProposalRequest newTransactionProposalRequest(String chaincodeName, String fcn, String[] args) throws InvalidArgumentException {
+        return requests(chaincodeName).newTransactionProposal(fcn, args);
     }
 
     /**
-     * query method
+     * query method, routed to the peer with the lowest recent latency. if it has not answered within the
+     * hedge percentile of its latencies the query is also sent to the next peer and the first successful answer
+     * wins, a failed answer falls over to the next peer. in consistency mode the query goes to all the peers
+     * and their payloads must match.
      * @param fcn
      * @param args
      * @return
@@ -204,33 +783,445 @@ public class ConsortiumChaincodeManager {
      * @throws InvalidArgumentException
      * @throws ProposalException
      */
-    public Map<String, String> query(String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
-        Map<String, String> resultMap = new HashMap<>();
-        String payload = "";
-        QueryByChaincodeRequest queryByChaincodeRequest = hfClient.newQueryProposalRequest();
-        queryByChaincodeRequest.setArgs(args);
-        queryByChaincodeRequest.setFcn(fcn);
-        queryByChaincodeRequest.setChaincodeID(chaincodeID);
-        Map<String, byte[]> tm2 = new HashMap<>();
-        tm2.put("HyperLedgerFabric", "QueryByChaincodeRequest:JavaSDK".getBytes(UTF_8));
-        tm2.put("method", "QueryByChaincodeRequest".getBytes(UTF_8));
-        queryByChaincodeRequest.setTransientMap(tm2);
-        Collection<ProposalResponse> queryProposals = channel.queryByChaincode(queryByChaincodeRequest, channel.getPeers());
+    public ChaincodeResult query(String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
+        return query(chaincode.getChaincodeName(), fcn, args);
+    }
+    /**
+     * query a chaincode of the channel, see {@link #query(String, String[])}.
+     * @param chaincodeName the chaincode
+     * @param fcn
+     * @param args
+     * @return
+     * @throws UnsupportedEncodingException
+     * @throws InvalidArgumentException
+     * @throws ProposalException
+     */
+    public ChaincodeResult query(String chaincodeName, String fcn, String[] args) throws UnsupportedEncodingException, InvalidArgumentException, ProposalException {
+        Channel channel = readyChannel();
+        if (consortiumConfig.isQueryConsistency()) {
+            return queryAllPeers(channel, chaincodeName, fcn, args);
+        }
+        if (null == queryCache || !queryCache.isCacheable(fcn)) {
+            return toQueryResult(routeQuery(channel, chaincodeName, fcn, args));
+        }
+        String key = QueryResultCache.key(chaincodeName, fcn, args);
+        String cached = queryCache.get(key);
+        if (null != cached) {
+            return ChaincodeResult.success(cached);
+        }
+        long epoch = queryCache.getInvalidationEpoch();
+        QueryAttempt attempt = routeQuery(channel, chaincodeName, fcn, args);
+        if (attempt.isSuccess()) {
+            try {
+                queryCache.put(key, attempt.payload(), attempt.response.getChaincodeActionResponseReadWriteSetInfo(), epoch);
+            } catch (InvalidArgumentException ex) {
+                logger.warn("no read set in the query response of {}, don't cache it,ex={}", fcn, ex);
+            }
+        }
+        return toQueryResult(attempt);
+    }
+    /**
+     * query a chaincode once per arguments of a batch, with at most {@code maxConcurrency} proposals in flight,
+     * bounded by {@link ConsortiumConfig#getBulkQueryConcurrency()}.
+     * the arguments are pulled from the iterator as the window frees up and the results are handed to the consumer
+     * as they complete, so the memory used doesn't depend on the size of the batch. the consumer is called by
+     * one thread at a time; its failure stops the batch.
+     * @param chaincodeName the chaincode
+     * @param fcn the query function
+     * @param batch the arguments of the queries
+     * @param maxConcurrency the requested maximum number of queries in flight
+     * @param consumer the consumer of the results, in completion order
+     * @return the number of queries sent
+     * @throws IOException the failure of the consumer
+     * @throws InterruptedException
+     */
+    public long queryBatch(String chaincodeName, String fcn, Iterator<String[]> batch, int maxConcurrency, BatchConsumer consumer)
+            throws IOException, InterruptedException {
+        int windowSize = Math.max(1, Math.min(maxConcurrency, consortiumConfig.getBulkQueryConcurrency()));
+        Semaphore window = new Semaphore(windowSize);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Object consumerLock = new Object();
+        long count = 0;
+        try {
+            while (null == failure.get() && batch.hasNext()) {
+                String[] args = batch.next();
+                long index = count++;
+                window.acquire();
+                try {
+                    queryExecutor.execute(() -> {
+                        try {
+                            ChaincodeResult result;
+                            try {
+                                result = query(chaincodeName, fcn, args);
+                            } catch (Exception ex) {
+                                result = ChaincodeResult.error(String.valueOf(ex.getMessage()));
+                            }
+                            synchronized (consumerLock) {
+                                if (null == failure.get()) {
+                                    consumer.accept(index, args, result);
+                                }
+                            }
+                        } catch (IOException ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            window.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    window.release();
+                    throw new IOException("the channel " + chaincode.getChannelName() + " is shut down", ex);
+                }
+            }
+        } finally {
+            //wait for the queries in flight, the consumer must not be called after the return
+            window.acquireUninterruptibly(windowSize);
+        }
+        if (null != failure.get()) {
+            throw failure.get();
+        }
+        return count;
+    }
+    private ChaincodeResult toQueryResult(QueryAttempt attempt) {
+        if (attempt.isSuccess()) {
+            logger.debug("Query payload from peer: {}", attempt.peer.getName());
+            return ChaincodeResult.success(attempt.payload());
+        }
+        return ChaincodeResult.error(attempt.describe());
+    }
+    /**
+     * send the query to the fastest peer, hedge it or fall over to the next peers.
+     * @return the first successful attempt, or the last failed one
+     */
+    private QueryAttempt routeQuery(Channel channel, String chaincodeName, String fcn, String[] args) throws ProposalException {
+        List<Peer> ranked = rankAvailable(channel.getPeers(), Peer::getName);
+        if (ranked.isEmpty()) {
+            throw new ProposalException(String.format("channel %s has no peer", channel.getName()));
+        }
+        CompletionService<QueryAttempt> attempts = new ExecutorCompletionService<>(queryExecutor);
+        int next = 0;
+        int outstanding = 0;
+        boolean hedged = false;
+        QueryAttempt lastFailure = null;
+        //the peer of the only attempt outstanding, the hedge delay follows its latencies
+        Peer current = ranked.get(next++);
+        submitQuery(attempts, channel, current, chaincodeName, fcn, args);
+        outstanding++;
+        long hedgeDelayNanos = getHedgeDelayNanos(current);
+        try {
+            while (outstanding > 0) {
+                Future<QueryAttempt> done;
+                if (!hedged && outstanding == 1 && next < ranked.size()) {
+                    done = attempts.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+                    if (null == done) {
+                        hedged = true;
+                        hedgedQueryCount.incrementAndGet();
+                        logger.debug("query {} not answered by {} within {} us, hedge it to {}", fcn, current.getName(),
+                                TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos), ranked.get(next).getName());
+                        submitQuery(attempts, channel, ranked.get(next++), chaincodeName, fcn, args);
+                        outstanding++;
+                        continue;
+                    }
+                } else {
+                    done = attempts.take();
+                }
+                outstanding--;
+                QueryAttempt attempt = done.get();
+                if (attempt.isSuccess()) {
+                    return attempt;
+                }
+                lastFailure = attempt;
+                if (outstanding == 0 && next < ranked.size()) {
+                    current = ranked.get(next++);
+                    submitQuery(attempts, channel, current, chaincodeName, fcn, args);
+                    outstanding++;
+                    hedgeDelayNanos = getHedgeDelayNanos(current);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProposalException(ex);
+        } catch (ExecutionException ex) {
+            throw new ProposalException(ex.getCause());
+        }
+        return lastFailure;
+    }
+    private ChaincodeResult queryAllPeers(Channel channel, String chaincodeName, String fcn, String[] args) throws InvalidArgumentException, ProposalException {
+        Collection<ProposalResponse> queryProposals = channel.queryByChaincode(newQueryRequest(chaincodeName, fcn, args), channel.getPeers());
+        String payload = null;
         for (ProposalResponse proposalResponse : queryProposals) {
-            if (!proposalResponse.isVerified() || proposalResponse.getStatus() != ProposalResponse.Status.SUCCESS) {
-                logger.debug("Failed query proposal from peer " + proposalResponse.getPeer().getName() + " status: " + proposalResponse.getStatus() + ". Messages: "
-                        + proposalResponse.getMessage() + ". Was verified : " + proposalResponse.isVerified());
-                resultMap.put("code", "error");
-                resultMap.put("data", "Failed query proposal from peer " + proposalResponse.getPeer().getName() + " status: " + proposalResponse.getStatus() + ". Messages: "
-                        + proposalResponse.getMessage() + ". Was verified : " + proposalResponse.isVerified());
-            } else {
-                payload = proposalResponse.getProposalResponse().getResponse().getPayload().toStringUtf8();
-                logger.debug("Query payload from peer: " + proposalResponse.getPeer().getName());
-                logger.debug("" + payload);
-                resultMap.put("code", "success");
-                resultMap.put("data", payload);
+            QueryAttempt attempt = new QueryAttempt(proposalResponse.getPeer(), proposalResponse, null);
+            if (!attempt.isSuccess()) {
+                logger.debug(attempt.describe());
+                return ChaincodeResult.error(attempt.describe());
             }
+            String peerPayload = attempt.payload();
+            if (null != payload && !payload.equals(peerPayload)) {
+                logger.warn("the peers returned different payloads for query {}", fcn);
+                return ChaincodeResult.error("Inconsistent query payloads, peer " + proposalResponse.getPeer().getName() + " disagrees");
+            }
+            payload = peerPayload;
+        }
+        return ChaincodeResult.success(payload);
+    }
+    private void submitQuery(CompletionService<QueryAttempt> attempts, Channel channel, Peer peer, String chaincodeName, String fcn, String[] args) {
+        attempts.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                QueryByChaincodeRequest request = newQueryRequest(chaincodeName, fcn, args);
+                request.setProposalWaitTime(getDeadlineMillis(peer.getName(), consortiumConfig.getProposalWaitTimeMillis()));
+                ProposalResponse response = channel.queryByChaincode(request, Collections.singletonList(peer)).iterator().next();
+                recordPeer(peer, response, System.nanoTime() - start);
+                return new QueryAttempt(peer, response, null);
+            } catch (Exception ex) {
+                recordPeer(peer, null, -1L);
+                return new QueryAttempt(peer, null, ex);
+            }
+        });
+    }
+    /**
+     * record the answer of a peer. a peer returning a chaincode error answered, only a missing answer
+     * (a timeout or a connection failure) counts against its latency and its circuit breaker.
+     * @param latencyNanos the latency, {@code -1} if unknown
+     */
+    private void recordPeer(Peer peer, ProposalResponse response, long latencyNanos) {
+        if (null == response || null == response.getProposalResponse()) {
+            latencyTracker.recordFailure(peer.getName());
+            circuitBreaker(peer.getName()).onFailure();
+            return;
+        }
+        if (latencyNanos >= 0) {
+            latencyTracker.record(peer.getName(), latencyNanos);
+        }
+        circuitBreaker(peer.getName()).onSuccess();
+    }
+    /**
+     * rank the endpoints by latency, without the ones ejected by their circuit breaker. the ejected endpoints
+     * due for a probe come first, so that the probe is sent. if all of them are ejected they are all returned.
+     */
+    private <T> List<T> rankAvailable(Collection<T> endpoints, Function<T, String> name) {
+        List<T> probes = new ArrayList<>();
+        List<T> available = new ArrayList<>(endpoints.size());
+        for (T endpoint : endpoints) {
+            CircuitBreaker.State state = circuitBreaker(name.apply(endpoint)).acquire();
+            if (state == CircuitBreaker.State.CLOSED) {
+                available.add(endpoint);
+            } else if (state == CircuitBreaker.State.HALF_OPEN) {
+                probes.add(endpoint);
+            }
+        }
+        if (available.isEmpty() && probes.isEmpty()) {
+            logger.warn("all the endpoints {} are ejected, try them anyway", endpoints);
+            return latencyTracker.rank(endpoints, name);
+        }
+        List<T> ranked = latencyTracker.rank(available, name);
+        ranked.addAll(0, probes);
+        return ranked;
+    }
+    private long getDeadlineMillis(String name, long maxMillis) {
+        return latencyTracker.getDeadlineMillis(name, consortiumConfig.getDeadlinePercentile(), consortiumConfig.getDeadlineMultiplier(),
+                consortiumConfig.getDeadlineMinMillis(), maxMillis);
+    }
+    private CircuitBreaker circuitBreaker(String name) {
+        return circuitBreakers.computeIfAbsent(name, key -> new CircuitBreaker(key, consortiumConfig.getBreakerFailureThreshold(),
+                consortiumConfig.getBreakerOpenMillis()));
+    }
+    /**
+     * @return the circuit breakers of the peers and orderers, by name.
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+    private long getHedgeDelayNanos(Peer peer) {
+        long percentile = latencyTracker.getPercentileNanos(peer.getName(), consortiumConfig.getQueryHedgePercentile());
+        return percentile > 0 ? percentile : TimeUnit.MILLISECONDS.toNanos(consortiumConfig.getQueryHedgeDelayMillis());
+    }
+    private QueryByChaincodeRequest newQueryRequest(String chaincodeName, String fcn, String[] args) throws InvalidArgumentException {
+        return requests(chaincodeName).newQuery(fcn, args);
+    }
+    /**
+     * @return the recent latencies of the peers, used to route the queries.
+     */
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+    /**
+     * @return the block events of the channel, to subscribe to. they are published only if
+     * {@link ConsortiumConfig#isRegisterEvent()} or a cache or the transaction index is enabled.
+     */
+    public BlockEventPipeline getBlockEvents() {
+        return blockEvents;
+    }
+    /**
+     * scan a range of blocks of the channel, queried in parallel over its peers.
+     * @param from the first block number
+     * @param to the block number after the last one
+     * @return the blocks in order, to be closed if not read to the end
+     */
+    public BlockRangeScanner.BlockIterator scanBlocks(long from, long to) {
+        return blockSource.getBlocks(from, to);
+    }
+    /**
+     * @param blockNumber the block number
+     * @return the block, from the block cache if enabled
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    public BlockInfo queryBlockByNumber(long blockNumber) throws ProposalException, InvalidArgumentException {
+        return null != blockCache ? blockCache.getBlockByNumber(readyChannel(), blockNumber) : readyChannel().queryBlockByNumber(blockNumber);
+    }
+    /**
+     * @param blockHash the hash of the block header
+     * @return the block, from the block cache if enabled
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    public BlockInfo queryBlockByHash(byte[] blockHash) throws ProposalException, InvalidArgumentException {
+        return null != blockCache ? blockCache.getBlockByHash(readyChannel(), blockHash) : readyChannel().queryBlockByHash(blockHash);
+    }
+    /**
+     * @return the block cache, {@code null} if disabled or not supported by the SDK, see {@link BlockCache#isSupported()}.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+    /**
+     * @return the height of the channel.
+     * @throws ProposalException
+     * @throws InvalidArgumentException
+     */
+    public long getHeight() throws ProposalException, InvalidArgumentException {
+        return blockSource.getHeight();
+    }
+    /**
+     * subscribe to the blocks of the channel from the last block the subscriber processed before the restart,
+     * see {@link CheckpointedSubscriber}. the live blocks are published under the same conditions as
+     * {@link #getBlockEvents()}, else the subscriber only catches up on start.
+     * @param name the subscriber name, the key of its checkpoint
+     * @param subscriber the subscriber
+     * @param firstBlock the block to start from without a checkpoint, {@code -1} for the live blocks only
+     * @return the subscription
+     */
+    public BlockEventPipeline.Subscription subscribeFromCheckpoint(String name, BlockSubscriber subscriber, long firstBlock) {
+        return subscribeFromCheckpoint(name, subscriber, firstBlock, 0);
+    }
+    /**
+     * subscribe from the checkpoint, skipping a block the subscriber fails on too many times in a row.
+     * @param maxBlockFailures the number of failures in a row after which a block is skipped, {@code 0} to retry it forever
+     * @see #subscribeFromCheckpoint(String, BlockSubscriber, long)
+     */
+    public BlockEventPipeline.Subscription subscribeFromCheckpoint(String name, BlockSubscriber subscriber, long firstBlock, int maxBlockFailures) {
+        return blockEvents.subscribe(name, new CheckpointedSubscriber(chaincode.getChannelName(), name, subscriber,
+                consortiumStore, blockSource, firstBlock, consortiumConfig.getCheckpointIntervalMillis(), maxBlockFailures));
+    }
+    /**
+     * find where a transaction was committed, in the local index first, then on the peers. a transaction found on
+     * the peers is added to the index.
+     * @param transactionId the transaction id
+     * @return the location of the transaction
+     * @throws ProposalException if the transaction is not committed or the peers can't be queried
+     * @throws InvalidArgumentException
+     */
+    public TransactionLocation getTransactionLocation(String transactionId) throws ProposalException, InvalidArgumentException {
+        if (null != transactionIndex) {
+            TransactionLocation location = transactionIndex.get(transactionId);
+            if (null != location) {
+                return location;
+            }
+        }
+        BlockInfo block = readyChannel().queryBlockByTransactionID(transactionId);
+        int index = 0;
+        for (BlockInfo.EnvelopeInfo envelopeInfo : block.getEnvelopeInfos()) {
+            if (transactionId.equals(envelopeInfo.getTransactionID())) {
+                TransactionLocation location = new TransactionLocation(transactionId, block.getBlockNumber(), index, envelopeInfo.getValidationCode());
+                if (null != transactionIndex) {
+                    transactionIndex.put(location);
+                }
+                return location;
+            }
+            index++;
+        }
+        throw new ProposalException(String.format("transaction %s not found in block %d", transactionId, block.getBlockNumber()));
+    }
+    /**
+     * @return the local index of the transactions, {@code null} if disabled.
+     */
+    public TransactionIndex getTransactionIndex() {
+        return transactionIndex;
+    }
+    /**
+     * @return the query result cache, {@code null} if disabled.
+     */
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+    /**
+     * @return the number of queries sent to a second peer because the first one was slow.
+     */
+    public long getHedgedQueryCount() {
+        return hedgedQueryCount.get();
+    }
+    /**
+     * the answer of one peer to a query.
+     */
+    private static final class QueryAttempt {
+        private final Peer peer;
+        private final ProposalResponse response;
+        private final Exception failure;
+
+        QueryAttempt(Peer peer, ProposalResponse response, Exception failure) {
+            this.peer = peer;
+            this.response = response;
+            this.failure = failure;
+        }
+
+        boolean isSuccess() {
+            return null != response && response.isVerified() && response.getStatus() == ProposalResponse.Status.SUCCESS;
+        }
+
+        String payload() {
+            return response.getProposalResponse().getResponse().getPayload().toStringUtf8();
+        }
+
+        String describe() {
+            if (null != failure) {
+                return "Failed query proposal from peer " + peer.getName() + ": " + failure.getMessage();
+            }
+            return "Failed query proposal from peer " + peer.getName() + " status: " + response.getStatus() + ". Messages: "
+                    + response.getMessage() + ". Was verified : " + response.isVerified();
+        }
+    }
+    /**
+     * the consumer of the results of {@link #queryBatch}.
+     */
+    public interface BatchConsumer {
+        /**
+         * @param index the position of the arguments in the batch
+         * @param args the arguments of the query
+         * @param result the result of the query
+         * @throws IOException to stop the batch
+         */
+        void accept(long index, String[] args, ChaincodeResult result) throws IOException;
+    }
+    /**
+     * the consistent proposal responses of a transaction, ready to be sent to the orderers.
+     */
+    public static final class Endorsement {
+        private final Collection<ProposalResponse> responses;
+        private final String transactionId;
+        private final String payload;
+
+        Endorsement(Collection<ProposalResponse> responses, String transactionId, String payload) {
+            this.responses = responses;
+            this.transactionId = transactionId;
+            this.payload = payload;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public String getPayload() {
+            return payload;
         }
-        return resultMap;
     }
-}
\ No newline at end of file
+}
@@ -10,6 +10,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author: jate  Date: 2018/3/19 Time: 11:17
@@ -55,7 +59,159 @@ public class ConsortiumConfig {
      * by default the path is located in: /xxx/WEB-INF/classes/fabric/crypto-config/
      */
     private String cryptoConfigPath;
+    /**
+     * register the block listener of the channels to publish the blocks to the subscribers of
+     * {@link ConsortiumChaincodeManager#getBlockEvents()}. it is registered anyway when the query cache, the block
+     * cache or the transaction index is enabled.
+     */
     private boolean registerEvent = false;
+    /**
+     * the background flush interval of the {@link ConsortiumStore} in milliseconds.
+     * {@code 0} keeps the store in write-through mode.
+     */
+    private long storeFlushIntervalMillis = 0L;
+    /**
+     * the backend of the {@link ConsortiumStore}, {@link StoreType#PROPERTIES} by default.
+     */
+    private StoreType storeType = StoreType.PROPERTIES;
+    /**
+     * the file of the {@link ConsortiumStore}.
+     */
+    private String storeFile = "/root/fabric-samples/first-network/firstnetwork.properties";
+
+    /**
+     * the supported {@link ConsortiumStoreBackend} types.
+     */
+    public enum StoreType {
+        /**
+         * {@link PropertiesStoreBackend}
+         */
+        PROPERTIES,
+        /**
+         * {@link LogStructuredStoreBackend}
+         */
+        LOG,
+        /**
+         * {@link ConsulStoreBackend}
+         */
+        CONSUL
+    }
+    /**
+     * the directory of the serialized channel snapshots used for a warm start,
+     * {@code null} always builds and initializes the channel from the configuration.
+     */
+    private String channelSnapshotPath;
+    /**
+     * the maximum number of members cached by the {@link ConsortiumStore}, see {@link MemberCache}.
+     */
+    private int memberCacheSize = 1024;
+    /**
+     * drop the cached members not accessed within this time, {@code 0} keeps them until evicted by size.
+     */
+    private long memberCacheExpireAfterAccessMillis = 0L;
+    /**
+     * the consul agent of the {@link StoreType#CONSUL} store.
+     */
+    private String consulHost = "localhost";
+    private int consulPort = 8500;
+    private String consulKeyPrefix = "hyperledger/fabric/consortium/";
+    /**
+     * the number of threads sending the proposals and broadcasts of {@link ConsortiumChaincodeManager#invokeAsync}.
+     */
+    private int invokeThreads = 16;
+    /**
+     * the maximum number of queries of a bulk query in flight at once.
+     */
+    private int bulkQueryConcurrency = 32;
+    /**
+     * the number of block events buffered per channel for the subscribers of the {@link BlockEventPipeline}.
+     * a block stays in memory, raw and decoded, until every subscriber consumed it: a lagging subscriber holds up
+     * to this number of blocks.
+     */
+    private int blockEventBufferSize = 128;
+    /**
+     * the number of threads decoding the block events of a channel.
+     */
+    private int blockEventDecodeThreads = 2;
+    /**
+     * the minimum time between two checkpoints of a {@link CheckpointedSubscriber}, the blocks processed since
+     * the last checkpoint are delivered again after a crash.
+     */
+    private long checkpointIntervalMillis = 1000L;
+    /**
+     * the number of blocks queried ahead by a {@link BlockRangeScanner}.
+     */
+    private int blockScanPrefetch = 16;
+    /**
+     * the directory of the {@link TransactionIndex} of each channel, {@code null} to look the transactions up on the peers only.
+     */
+    private String transactionIndexPath;
+    /**
+     * the number of transactions indexed in memory before they are written to disk between two checkpoints.
+     */
+    private int transactionIndexFlushThreshold = 65536;
+    /**
+     * a query not answered within this percentile of the recent latencies of its peer is hedged to a second peer.
+     */
+    private double queryHedgePercentile = 0.95d;
+    /**
+     * the hedge delay used until enough latencies of the peer were measured.
+     */
+    private long queryHedgeDelayMillis = 100L;
+    /**
+     * send the queries to all the peers and compare their payloads instead of routing them to one peer.
+     */
+    private boolean queryConsistency = false;
+    /**
+     * the yaml endorsement policy the chaincode was instantiated with, the proposals go to the smallest set
+     * of peers satisfying it, {@code null} sends them to all the peers of the channel.
+     */
+    private String endorsementPolicyFile;
+    /**
+     * the yaml endorsement policy of the other chaincodes reached through {@link ConsortiumGateway}, by chaincode name.
+     */
+    private Map<String,String> endorsementPolicyFiles = new HashMap<String, String>();
+    /**
+     * the MSP id of the peers not belonging to the org of {@link #peers}, by peer name.
+     */
+    private Map<String,String> peerMspIds = new HashMap<String, String>();
+    /**
+     * the maximum number of query results cached, see {@link QueryResultCache}, {@code 0} disables the cache.
+     */
+    private int queryCacheSize = 0;
+    /**
+     * the query functions whose results are never cached, like the ones reading the time or the history.
+     */
+    private Set<String> queryCacheExcludedFunctions = new HashSet<String>();
+    /**
+     * the direct memory holding the cached blocks of each channel, see {@link BlockCache}, {@code 0} disables the cache.
+     * the cache relies on the package-private {@code BlockInfo(Common.Block)} constructor of the SDK, it stays
+     * disabled with an error logged if the SDK lacks it.
+     */
+    private long blockCacheBytes = 0L;
+    /**
+     * the proposal and commit deadlines of an endpoint are {@link #deadlineMultiplier} times this percentile
+     * of its recent latencies, bounded by {@link #deadlineMinMillis} and the configured wait times.
+     */
+    private double deadlinePercentile = 0.99d;
+    private double deadlineMultiplier = 3.0d;
+    private long deadlineMinMillis = 1000L;
+    /**
+     * the upper bound of the proposal deadline of a peer.
+     */
+    private long proposalWaitTimeMillis = 120000L;
+    /**
+     * the time an orderer is given to accept a broadcast.
+     */
+    private long ordererWaitTimeMillis = 30000L;
+    /**
+     * the number of consecutive failures ejecting a peer or an orderer, see {@link CircuitBreaker}.
+     */
+    private int breakerFailureThreshold = 5;
+    /**
+     * the time an ejected endpoint waits before it is probed.
+     */
+    private long breakerOpenMillis = 30000L;
 
     public ConsortiumConfig(){
         channelArtifactsPath = "/root/fabric-samples/first-networ/channel-artifacts/";
@@ -105,4 +261,284 @@ public class ConsortiumConfig {
         return registerEvent;
     }
 
-}
\ No newline at end of file
+    public void setRegisterEvent(boolean registerEvent) {
+        this.registerEvent = registerEvent;
+    }
+
+    public long getStoreFlushIntervalMillis() {
+        return storeFlushIntervalMillis;
+    }
+
+    public void setStoreFlushIntervalMillis(long storeFlushIntervalMillis) {
+        this.storeFlushIntervalMillis = storeFlushIntervalMillis;
+    }
+
+    public StoreType getStoreType() {
+        return storeType;
+    }
+
+    public void setStoreType(StoreType storeType) {
+        this.storeType = storeType;
+    }
+
+    public String getStoreFile() {
+        return storeFile;
+    }
+
+    public void setStoreFile(String storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    public String getChannelSnapshotPath() {
+        return channelSnapshotPath;
+    }
+
+    public void setChannelSnapshotPath(String channelSnapshotPath) {
+        this.channelSnapshotPath = channelSnapshotPath;
+    }
+
+    public int getMemberCacheSize() {
+        return memberCacheSize;
+    }
+
+    public void setMemberCacheSize(int memberCacheSize) {
+        this.memberCacheSize = memberCacheSize;
+    }
+
+    public long getMemberCacheExpireAfterAccessMillis() {
+        return memberCacheExpireAfterAccessMillis;
+    }
+
+    public void setMemberCacheExpireAfterAccessMillis(long memberCacheExpireAfterAccessMillis) {
+        this.memberCacheExpireAfterAccessMillis = memberCacheExpireAfterAccessMillis;
+    }
+
+    public String getConsulHost() {
+        return consulHost;
+    }
+
+    public void setConsulHost(String consulHost) {
+        this.consulHost = consulHost;
+    }
+
+    public int getConsulPort() {
+        return consulPort;
+    }
+
+    public void setConsulPort(int consulPort) {
+        this.consulPort = consulPort;
+    }
+
+    public String getConsulKeyPrefix() {
+        return consulKeyPrefix;
+    }
+
+    public void setConsulKeyPrefix(String consulKeyPrefix) {
+        this.consulKeyPrefix = consulKeyPrefix;
+    }
+
+    public int getInvokeThreads() {
+        return invokeThreads;
+    }
+
+    public void setInvokeThreads(int invokeThreads) {
+        this.invokeThreads = invokeThreads;
+    }
+
+    public int getBlockEventBufferSize() {
+        return blockEventBufferSize;
+    }
+
+    public void setBlockEventBufferSize(int blockEventBufferSize) {
+        this.blockEventBufferSize = blockEventBufferSize;
+    }
+
+    public int getBlockEventDecodeThreads() {
+        return blockEventDecodeThreads;
+    }
+
+    public void setBlockEventDecodeThreads(int blockEventDecodeThreads) {
+        this.blockEventDecodeThreads = blockEventDecodeThreads;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public int getBlockScanPrefetch() {
+        return blockScanPrefetch;
+    }
+
+    public void setBlockScanPrefetch(int blockScanPrefetch) {
+        this.blockScanPrefetch = blockScanPrefetch;
+    }
+
+    public String getTransactionIndexPath() {
+        return transactionIndexPath;
+    }
+
+    public void setTransactionIndexPath(String transactionIndexPath) {
+        this.transactionIndexPath = transactionIndexPath;
+    }
+
+    public int getTransactionIndexFlushThreshold() {
+        return transactionIndexFlushThreshold;
+    }
+
+    public void setTransactionIndexFlushThreshold(int transactionIndexFlushThreshold) {
+        this.transactionIndexFlushThreshold = transactionIndexFlushThreshold;
+    }
+
+    public int getBulkQueryConcurrency() {
+        return bulkQueryConcurrency;
+    }
+
+    public void setBulkQueryConcurrency(int bulkQueryConcurrency) {
+        this.bulkQueryConcurrency = bulkQueryConcurrency;
+    }
+
+    public double getQueryHedgePercentile() {
+        return queryHedgePercentile;
+    }
+
+    public void setQueryHedgePercentile(double queryHedgePercentile) {
+        this.queryHedgePercentile = queryHedgePercentile;
+    }
+
+    public long getQueryHedgeDelayMillis() {
+        return queryHedgeDelayMillis;
+    }
+
+    public void setQueryHedgeDelayMillis(long queryHedgeDelayMillis) {
+        this.queryHedgeDelayMillis = queryHedgeDelayMillis;
+    }
+
+    public boolean isQueryConsistency() {
+        return queryConsistency;
+    }
+
+    public void setQueryConsistency(boolean queryConsistency) {
+        this.queryConsistency = queryConsistency;
+    }
+
+    public String getEndorsementPolicyFile() {
+        return endorsementPolicyFile;
+    }
+
+    public void setEndorsementPolicyFile(String endorsementPolicyFile) {
+        this.endorsementPolicyFile = endorsementPolicyFile;
+    }
+
+    /**
+     * @param chaincodeName the chaincode name
+     * @return the endorsement policy of the chaincode, {@link #getEndorsementPolicyFile()} for the configured one
+     */
+    public String getEndorsementPolicyFile(String chaincodeName) {
+        String policyFile = endorsementPolicyFiles.get(chaincodeName);
+        if(null == policyFile && null != chaincode && chaincodeName.equals(chaincode.getChaincodeName())){
+            return endorsementPolicyFile;
+        }
+        return policyFile;
+    }
+
+    public Map<String, String> getEndorsementPolicyFiles() {
+        return endorsementPolicyFiles;
+    }
+
+    public void setEndorsementPolicyFiles(Map<String, String> endorsementPolicyFiles) {
+        this.endorsementPolicyFiles = endorsementPolicyFiles;
+    }
+
+    public Map<String, String> getPeerMspIds() {
+        return peerMspIds;
+    }
+
+    public void setPeerMspIds(Map<String, String> peerMspIds) {
+        this.peerMspIds = peerMspIds;
+    }
+
+    public int getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    public void setQueryCacheSize(int queryCacheSize) {
+        this.queryCacheSize = queryCacheSize;
+    }
+
+    public Set<String> getQueryCacheExcludedFunctions() {
+        return queryCacheExcludedFunctions;
+    }
+
+    public void setQueryCacheExcludedFunctions(Set<String> queryCacheExcludedFunctions) {
+        this.queryCacheExcludedFunctions = queryCacheExcludedFunctions;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public void setBlockCacheBytes(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+    }
+
+    public double getDeadlinePercentile() {
+        return deadlinePercentile;
+    }
+
+    public void setDeadlinePercentile(double deadlinePercentile) {
+        this.deadlinePercentile = deadlinePercentile;
+    }
+
+    public double getDeadlineMultiplier() {
+        return deadlineMultiplier;
+    }
+
+    public void setDeadlineMultiplier(double deadlineMultiplier) {
+        this.deadlineMultiplier = deadlineMultiplier;
+    }
+
+    public long getDeadlineMinMillis() {
+        return deadlineMinMillis;
+    }
+
+    public void setDeadlineMinMillis(long deadlineMinMillis) {
+        this.deadlineMinMillis = deadlineMinMillis;
+    }
+
+    public long getProposalWaitTimeMillis() {
+        return proposalWaitTimeMillis;
+    }
+
+    public void setProposalWaitTimeMillis(long proposalWaitTimeMillis) {
+        this.proposalWaitTimeMillis = proposalWaitTimeMillis;
+    }
+
+    public long getOrdererWaitTimeMillis() {
+        return ordererWaitTimeMillis;
+    }
+
+    public void setOrdererWaitTimeMillis(long ordererWaitTimeMillis) {
+        this.ordererWaitTimeMillis = ordererWaitTimeMillis;
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold;
+    }
+
+    public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+        this.breakerFailureThreshold = breakerFailureThreshold;
+    }
+
+    public long getBreakerOpenMillis() {
+        return breakerOpenMillis;
+    }
+
+    public void setBreakerOpenMillis(long breakerOpenMillis) {
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+
+}
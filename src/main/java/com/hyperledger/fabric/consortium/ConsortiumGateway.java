@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.hyperledger.fabric.components.Chaincode;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the entry point to all the channels and chaincodes of the consortium. the gateway owns the {@link HFClient},
+ * its crypto suite and peer admin, the consortium org and store, and keeps a {@link ConsortiumChaincodeManager}
+ * per channel, created on the first use of the channel. the chaincodes of a channel share its manager, so its
+ * connections, latency statistics and circuit breakers.
+ * <pre class="code">
+ *     gateway.query("mychannel", "mycc", "query", new String[]{"a"});
+ *     gateway.invoke("otherchannel", "othercc", "move", new String[]{"a", "b", "10"});
+ * </pre>
+ * the SDK binds a peer or an orderer to a single channel, so each channel opens its own gRPC connections,
+ * but adding chaincodes to a channel opens none.
+ */
+public class ConsortiumGateway {
+    private static final Logger logger = LoggerFactory.getLogger(ConsortiumGateway.class);
+
+    private final ConsortiumConfig consortiumConfig;
+    private final HFClient hfClient;
+    private final ConsortiumStore consortiumStore;
+    private final ConsortiumOrg consortiumOrg;
+    private final Map<String, ConsortiumChaincodeManager> channels = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    public ConsortiumGateway(ConsortiumConfig consortiumConfig)
+            throws CryptoException, InvalidArgumentException, IOException, NoSuchMethodException, ClassNotFoundException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        this.consortiumConfig = consortiumConfig;
+        hfClient = HFClient.createNewInstance();
+        logger.debug("Create instance of HFClient");
+        hfClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+        logger.debug("Set Crypto Suite of HFClient");
+        consortiumStore = newConsortiumStore();
+        consortiumOrg = new ConsortiumOrg(consortiumConfig.getPeers(), consortiumConfig.getOrderers(), consortiumStore, consortiumConfig.getCryptoConfigPath());
+        logger.debug("Get FabricOrg");
+        hfClient.setUserContext(consortiumOrg.getPeerAdmin());
+    }
+
+    /**
+     * the manager of a channel, created and initialized on the first call.
+     * @param channelName the channel name
+     * @return the manager of the channel
+     * @throws InvalidArgumentException
+     * @throws TransactionException if the channel can't be initialized
+     */
+    public ConsortiumChaincodeManager getChannel(String channelName) throws InvalidArgumentException, TransactionException {
+        ConsortiumChaincodeManager manager = channels.get(channelName);
+        if (null != manager) {
+            return manager;
+        }
+        synchronized (channels) {
+            if (shutdown) {
+                throw new IllegalStateException("the gateway is shut down");
+            }
+            manager = channels.get(channelName);
+            if (null == manager) {
+                manager = new ConsortiumChaincodeManager(this, getChaincode(channelName), false);
+                channels.put(channelName, manager);
+                logger.info("opened the channel {}, {} channels open", channelName, channels.size());
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * the configured chaincode bound to another channel, the default chaincode of the channel.
+     */
+    private Chaincode getChaincode(String channelName) {
+        Chaincode configured = consortiumConfig.getChaincode();
+        Chaincode chaincode = new Chaincode();
+        chaincode.setChannelName(channelName);
+        chaincode.setChaincodeName(configured.getChaincodeName());
+        chaincode.setChaincodePath(configured.getChaincodePath());
+        chaincode.setChaincodeVersion(configured.getChaincodeVersion());
+        chaincode.setInvokeWatiTime(configured.getInvokeWatiTime());
+        chaincode.setDeployWatiTime(configured.getDeployWatiTime());
+        return chaincode;
+    }
+
+    public ChaincodeResult query(String channelName, String chaincodeName, String fcn, String[] args)
+            throws InvalidArgumentException, TransactionException, UnsupportedEncodingException, ProposalException {
+        return getChannel(channelName).query(chaincodeName, fcn, args);
+    }
+
+    public ChaincodeResult invoke(String channelName, String chaincodeName, String fcn, String[] args)
+            throws InvalidArgumentException, TransactionException, UnsupportedEncodingException, ProposalException {
+        return getChannel(channelName).invoke(chaincodeName, fcn, args);
+    }
+
+    public CompletableFuture<InvokeResult> invokeAsync(String channelName, String chaincodeName, String fcn, String[] args)
+            throws InvalidArgumentException, TransactionException {
+        return getChannel(channelName).invokeAsync(chaincodeName, fcn, args);
+    }
+
+    /**
+     * @return the names of the open channels.
+     */
+    public Set<String> getChannelNames() {
+        return new TreeSet<>(channels.keySet());
+    }
+
+    /**
+     * shutdown the managers of all the channels, then flush and close the consortium store.
+     */
+    public void shutdown() {
+        synchronized (channels) {
+            shutdown = true;
+        }
+        for (ConsortiumChaincodeManager manager : channels.values()) {
+            try {
+                manager.shutdown();
+            } catch (RuntimeException ex) {
+                logger.warn("could not shutdown the channel {},ex={}", manager.getChannelName(), ex);
+            }
+        }
+        channels.clear();
+        consortiumStore.close();
+    }
+
+    /**
+     * create the consortium store on the configured backend.
+     * @return
+     * @throws IOException
+     */
+    private ConsortiumStore newConsortiumStore() throws IOException {
+        File storeFile = new File(consortiumConfig.getStoreFile());
+        ConsortiumStoreBackend backend;
+        switch (consortiumConfig.getStoreType()){
+            case LOG:
+                backend = new LogStructuredStoreBackend(storeFile);
+                break;
+            case CONSUL:
+                backend = new ConsulStoreBackend(consortiumConfig.getConsulHost(),
+                        consortiumConfig.getConsulPort(), consortiumConfig.getConsulKeyPrefix());
+                break;
+            default:
+                backend = new PropertiesStoreBackend(storeFile, consortiumConfig.getStoreFlushIntervalMillis());
+        }
+        return new ConsortiumStore(backend, new MemberCache(consortiumConfig.getMemberCacheSize(),
+                consortiumConfig.getMemberCacheExpireAfterAccessMillis()));
+    }
+
+    /**
+     * @return the configuration shared by the channels, not to be changed once the gateway is built.
+     */
+    public ConsortiumConfig getConfig() {
+        return consortiumConfig;
+    }
+
+    HFClient getClient() {
+        return hfClient;
+    }
+
+    ConsortiumOrg getConsortiumOrg() {
+        return consortiumOrg;
+    }
+
+    ConsortiumStore getConsortiumStore() {
+        return consortiumStore;
+    }
+}
@@ -17,19 +17,40 @@ import java.lang.reflect.InvocationTargetException;
 
 /**
  * @author: jate  Date: 2018/3/19 Time: 11:17
+ * builds the {@link ConsortiumGateway} and the {@link ConsortiumChaincodeManager} of the configured channel:
+ * the client, the TLS connections to the peers and orderers and the initialized channel. it is expensive and
+ * thread safe, so the application keeps a single instance, see {@link com.hyperledger.fabric.starter.FabricStarterAutoConfiguration}.
  */
 public class ConsortiumManager {
     @Autowired
     private Environment env;
     private static final Logger log = LoggerFactory.getLogger(ConsortiumManager.class);
+    private ConsortiumGateway gateway;
     private ConsortiumChaincodeManager manager;
     public ConsortiumManager()
             throws CryptoException, InvalidArgumentException, TransactionException, IOException, NoSuchMethodException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException {
-        manager = new ConsortiumChaincodeManager(getConfig());
+        ConsortiumConfig config = getConfig();
+        gateway = new ConsortiumGateway(config);
+        manager = gateway.getChannel(config.getChaincode().getChannelName());
     }
+    /**
+     * @return the manager of the configured channel.
+     */
     public ConsortiumChaincodeManager getManager() {
         return manager;
     }
+    /**
+     * @return the gateway to the other channels and chaincodes, sharing the client of {@link #getManager()}.
+     */
+    public ConsortiumGateway getGateway() {
+        return gateway;
+    }
+    /**
+     * release the connections of all the channels, called by the container on shutdown.
+     */
+    public void shutdown() {
+        gateway.shutdown();
+    }
     private ConsortiumConfig getConfig() {
         ConsortiumConfig config = new ConsortiumConfig();
         config.setOrderers(getOrderers());
@@ -3,6 +3,7 @@
  */
 package com.hyperledger.fabric.consortium;
 
+import com.hyperledger.fabric.commonutils.CryptoMaterialCache;
 import com.hyperledger.fabric.components.Orderers;
 import com.hyperledger.fabric.components.Peers;
 import org.hyperledger.fabric.sdk.Peer;
@@ -77,14 +78,7 @@ public class ConsortiumOrg {
     }
 
     private File findFileSk(File directory) {
-        File[] matches = directory.listFiles((dir, name) -> name.endsWith("_sk"));
-        if(null == matches){
-            throw new RuntimeException(String.format("Matches returned null does %s directory exist?", directory.getAbsoluteFile().getName()));
-        }
-        if (matches.length != 1) {
-            throw new RuntimeException(String.format("Expected in %s only 1 sk file but found %d", directory.getAbsoluteFile().getName(), matches.length));
-        }
-        return matches[0];
+        return CryptoMaterialCache.getDefault().findFileSk(directory);
     }
 
     public void addOrdererLocation(String ordererName, String ordererLocation) {
@@ -4,11 +4,8 @@
  */
 package com.hyperledger.fabric.consortium;
 
-import org.apache.commons.io.IOUtils;
-import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import com.hyperledger.fabric.commonutils.CryptoMaterialCache;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.bouncycastle.util.encoders.Hex;
 import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.Enrollment;
@@ -20,19 +17,54 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.security.PrivateKey;
 import java.security.Security;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
+import java.util.Objects;
 
 /**
  * @author: jate  Date: 2018/3/19 Time: 11:16
  */
-public class ConsortiumStore {
+public class ConsortiumStore implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(ConsortiumStore.class);
-    private String file;
-    private final Map<String,ConsortiumUser> members = new HashMap<String, ConsortiumUser>();
+    private final ConsortiumStoreBackend backend;
+    private final MemberCache members;
+    private final CryptoMaterialCache cryptoMaterialCache = CryptoMaterialCache.getDefault();
     public ConsortiumStore(File file){
-        this.file = file.getAbsolutePath();
+        this(file,0L);
+    }
+
+    /**
+     * create the store over a properties file, in write-behind mode when {@code flushIntervalMillis} is positive.
+     * @param file the properties file
+     * @param flushIntervalMillis the flush interval, {@code 0} for write-through
+     * @see PropertiesStoreBackend
+     */
+    public ConsortiumStore(File file, long flushIntervalMillis){
+        this(new PropertiesStoreBackend(file,flushIntervalMillis));
+    }
+
+    /**
+     * create the store over the given {@link ConsortiumStoreBackend}
+     * @param backend
+     */
+    public ConsortiumStore(ConsortiumStoreBackend backend){
+        this(backend,new MemberCache());
+    }
+
+    /**
+     * create the store over the given {@link ConsortiumStoreBackend}, caching the members in {@code memberCache}
+     * @param backend
+     * @param memberCache
+     */
+    public ConsortiumStore(ConsortiumStoreBackend backend, MemberCache memberCache){
+        this.backend = backend;
+        this.members = memberCache;
+    }
+
+    public ConsortiumStoreBackend getBackend() {
+        return backend;
+    }
+
+    public MemberCache getMemberCache() {
+        return members;
     }
 
     /**
@@ -41,13 +73,7 @@ public class ConsortiumStore {
      * @param value
      */
     public void setValue(String name, String value){
-        Properties properties = loadProperties();
-        try (OutputStream os = new FileOutputStream(file)){
-            properties.setProperty(name,value);
-            properties.store(os,"");
-        }catch (IOException ex){
-            logger.error("exception happened when process setValue,ex={}",ex);
-        }
+        backend.setValue(name,value);
     }
 
     /**
@@ -56,25 +82,23 @@ public class ConsortiumStore {
      * @return
      */
     public String getValue(String name){
-        Properties properties = loadProperties();
-        return properties.getProperty(name);
+        return backend.getValue(name);
     }
 
     /**
-     * load the configuration file
-     * @return
+     * make the values set so far durable.
+     * @throws IOException
      */
-    private Properties loadProperties() {
-        logger.info("loading the properties file");
-        Properties properties = new Properties();
-        try(InputStream inputStream = new FileInputStream(file)){
-            properties.load(inputStream);
-        }catch (FileNotFoundException ex){
-            logger.error("could not find the file:{},cause the exception:{}",file,ex);
-        }catch (IOException ex){
-            logger.error("Could not load keyvalue store from file:{},cause the exception:{}",file,ex);
-        }
-        return properties;
+    public void flush() throws IOException {
+        backend.flush();
+    }
+
+    /**
+     * flush the pending values and release the backend.
+     */
+    @Override
+    public void close(){
+        backend.close();
     }
 
     /**
@@ -84,12 +108,11 @@ public class ConsortiumStore {
      * @return consortium user
      */
     public ConsortiumUser getMember(String name, String org){
-        ConsortiumUser consortiumUser = members.get(ConsortiumUser.toKeyValStoreName(name,org));
-        if(null != consortiumUser){
-            return consortiumUser;
+        try{
+            return members.get(ConsortiumUser.toKeyValStoreName(name,org),() -> new ConsortiumUser(name,org,this));
+        }catch (IOException | NoSuchMethodException ex){
+            throw new IllegalStateException(String.format("Could not load member %s of %s",name,org),ex);
         }
-        consortiumUser = new ConsortiumUser(name,org,this);
-        return consortiumUser;
     }
 
     /**
@@ -106,16 +129,15 @@ public class ConsortiumStore {
     public ConsortiumUser getMember(String name, String org, String mspId, File privateKeyFile, File certificateFile)
              throws IOException,NoSuchMethodException{
         try{
-            ConsortiumUser consortiumUser = members.get(ConsortiumUser.toKeyValStoreName(name,org));
-            if(null != consortiumUser){
-                logger.info("get the consortium user in the cache, consortiumUser = {}",consortiumUser);
-                return consortiumUser;
+            //shares its cache entry with getMember(name,org), which may have loaded the member without this identity
+            ConsortiumUser consortiumUser = members.get(ConsortiumUser.toKeyValStoreName(name,org),() -> new ConsortiumUser(name,org,this));
+            String certificate = cryptoMaterialCache.getPem(certificateFile);
+            PrivateKey privateKey = cryptoMaterialCache.getPrivateKey(privateKeyFile);
+            Enrollment enrollment = consortiumUser.getEnrollment();
+            if(!Objects.equals(mspId,consortiumUser.getMspId()) || null == enrollment
+                    || !certificate.equals(enrollment.getCert()) || !privateKey.equals(enrollment.getKey())){
+                consortiumUser.edit().setMspId(mspId).setEnrollment(new StoreEnrollement(privateKey,certificate)).commit();
             }
-            consortiumUser = new ConsortiumUser(name,org,this);
-            consortiumUser.setMspId(mspId);
-            String certificate = new String(IOUtils.toByteArray(new FileInputStream(certificateFile)),"UTF-8");
-            PrivateKey privateKey = getPrivateKeyFromBytes(IOUtils.toByteArray(new FileInputStream(privateKeyFile)));
-            consortiumUser.setEnrollment(new StoreEnrollement(privateKey,certificate));
             return consortiumUser;
         }catch (IOException ex){
             logger.error("IO exception happened while get the consortium user:{}",ex);
@@ -126,22 +148,6 @@ public class ConsortiumStore {
         }
     }
 
-    /**
-     * get the private key {@link PrivateKey} through the byte array {@code data}
-     * @param data byte array
-     * @return private key
-     * @throws IOException
-     * @throws NoSuchMethodException
-     */
-    private PrivateKey getPrivateKeyFromBytes(byte[] data) throws IOException,NoSuchMethodException{
-        Reader pemReader = new StringReader(new String(data));
-        PrivateKeyInfo pemPair = null;
-        PEMParser pemParser = new PEMParser(pemReader);
-        pemPair = (PrivateKeyInfo) pemParser.readObject();
-        PrivateKey privateKey = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getPrivateKey(pemPair);
-        return privateKey;
-    }
-
     static {
         try{
             Security.addProvider(new BouncyCastleProvider());
@@ -200,6 +206,31 @@ public class ConsortiumStore {
         return ret;
     }
 
+    /**
+     * save the last block fully processed by a subscriber of a channel.
+     * @param channelName the channel name
+     * @param subscriber the subscriber name
+     * @param blockNumber the block number
+     */
+    public void saveCheckpoint(String channelName, String subscriber, long blockNumber) {
+
+        setValue("checkpoint." + channelName + "." + subscriber, Long.toString(blockNumber));
+
+    }
+
+    /**
+     * get the last block fully processed by a subscriber of a channel.
+     * @param channelName the channel name
+     * @param subscriber the subscriber name
+     * @return the block number, or {@code -1} if the subscriber has no checkpoint
+     */
+    public long getCheckpoint(String channelName, String subscriber) {
+
+        String blockNumber = getValue("checkpoint." + channelName + "." + subscriber);
+        return null == blockNumber ? -1L : Long.parseLong(blockNumber);
+
+    }
+
     public void storeClientPEMTLSKey(ConsortiumOrg consortiumOrg, String key) {
 
         setValue("clientPEMTLSKey." + consortiumOrg.getName(), key);
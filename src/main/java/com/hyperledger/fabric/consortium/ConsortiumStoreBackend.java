@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * the key-value persistence used by the {@link ConsortiumStore}.
+ * the store keeps the user, channel and TLS encoding logic, the backend only
+ * has to keep the name/value pairs.
+ * the file based implementations keep the state local to one application node,
+ * {@link ConsulStoreBackend} shares it between all the nodes.
+ */
+public interface ConsortiumStoreBackend extends Closeable {
+
+    /**
+     * get the name related value.
+     * @param name
+     * @return the value, or {@code null} if the name is unknown
+     */
+    String getValue(String name);
+
+    /**
+     * set the name relative value.
+     * @param name
+     * @param value
+     */
+    void setValue(String name, String value);
+
+    /**
+     * make the values set so far durable.
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * flush the pending values and release the resources of the backend.
+     */
+    @Override
+    void close();
+}
@@ -11,6 +11,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -43,11 +45,22 @@ public class ConsortiumUser implements User,Serializable{
         this.keyValStoreName = toKeyValStoreName(name,org);
         String memberStr = consortiumStore.getValue(keyValStoreName);
         if(null != memberStr){
-            saveState();
-        }else{
             restoreState();
+        }else{
+            saveState();
         }
     }
+
+    /**
+     * create a user which is not bound to any {@link ConsortiumStore}, the setters don't persist anything.
+     * @param name
+     * @param org
+     */
+    ConsortiumUser(String name, String org){
+        this.name = name;
+        this.organization = org;
+        this.keyValStoreName = toKeyValStoreName(name,org);
+    }
     public void setName(String name) {
         this.name = name;
     }
@@ -72,16 +85,15 @@ public class ConsortiumUser implements User,Serializable{
     /**
      * Save the state of this user to the key value store.
      * store the user state information into the {@link ConsortiumStore} object.
+     * @see ConsortiumUserCodec
      */
     private void saveState() {
+        if(null == consortiumStore){
+            return;
+        }
         logger.info("save state information into the ConsortiumStore object");
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
         try{
-            ObjectOutputStream os = new ObjectOutputStream(bos);
-            os.writeObject(this);
-            os.flush();
-            consortiumStore.setValue(keyValStoreName,Hex.toHexString(bos.toByteArray()));
-            os.close();
+            consortiumStore.setValue(keyValStoreName,ConsortiumUserCodec.encodeToString(this));
         }catch (Exception ex){
             logger.error("Exception happened when save state info:{}",ex);
         }
@@ -226,17 +238,16 @@ public class ConsortiumUser implements User,Serializable{
 
     /**
      * find the user from the key-value cache;
-     * if it had been found, restore the object, or, do nothing
+     * if it had been found, restore the object, or, do nothing.
+     * a state still in the legacy hex encoded java serialization format is migrated to the binary format.
      * @return
      */
     private ConsortiumUser restoreState(){
         String memberStr = consortiumStore.getValue(keyValStoreName);
         if(null != memberStr && !"".equals(memberStr)){ //the user had been found in the key-value cache.
-            byte[] serialized = Hex.decode(memberStr);
-            ByteArrayInputStream bis = new ByteArrayInputStream(serialized);
             try{
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                ConsortiumUser user = (ConsortiumUser) ois.readObject();
+                boolean legacy = !ConsortiumUserCodec.isEncoded(memberStr);
+                ConsortiumUser user = legacy ? readLegacyState(memberStr) : ConsortiumUserCodec.decodeFromString(memberStr);
                 if(user != null){
                     this.name = user.getName();
                     this.roles = user.getRoles();
@@ -246,6 +257,10 @@ public class ConsortiumUser implements User,Serializable{
                     this.enrollmentSecret = user.getEnrollmentSecret();
                     this.enrollment = user.getEnrollment();
                     this.mspId = user.getMspId();
+                    if(legacy){
+                        logger.info("migrate the state of member {} to the binary format",keyValStoreName);
+                        saveState();
+                    }
                     return this;
                 }
             }catch (Exception ex){
@@ -256,8 +271,91 @@ public class ConsortiumUser implements User,Serializable{
         return null;
     }
 
+    /**
+     * read a state written by the former java serialization + hex format.
+     * @param memberStr the hex encoded serialized user
+     * @return the deserialized user
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    static ConsortiumUser readLegacyState(String memberStr) throws IOException, ClassNotFoundException {
+        byte[] serialized = Hex.decode(memberStr);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))){
+            return (ConsortiumUser) ois.readObject();
+        }
+    }
+
+    /**
+     * start a batch of changes which is stored into the {@link ConsortiumStore} only once, on {@link Editor#commit()}.
+     * <pre class="code">
+     *     user.edit().setEnrollment(enrollment).setMspId(mspId).commit();
+     * </pre>
+     * @return the editor of this user
+     */
+    public Editor edit(){
+        return new Editor();
+    }
+
+    /**
+     * collects the field changes of a {@link ConsortiumUser} and persists them with a single store write.
+     */
+    public final class Editor {
+        private final List<Runnable> changes = new ArrayList<Runnable>();
+
+        private Editor(){
+        }
+
+        public Editor setRoles(Set<String> roles) {
+            changes.add(() -> ConsortiumUser.this.roles = roles);
+            return this;
+        }
+
+        public Editor setAccount(String account) {
+            changes.add(() -> ConsortiumUser.this.account = account);
+            return this;
+        }
+
+        public Editor setAffiliation(String affiliation) {
+            changes.add(() -> ConsortiumUser.this.affiliation = affiliation);
+            return this;
+        }
+
+        public Editor setEnrollmentSecret(String enrollmentSecret) {
+            changes.add(() -> ConsortiumUser.this.enrollmentSecret = enrollmentSecret);
+            return this;
+        }
+
+        public Editor setMspId(String mspId) {
+            changes.add(() -> ConsortiumUser.this.mspId = mspId);
+            return this;
+        }
+
+        public Editor setEnrollment(Enrollment enrollment) {
+            changes.add(() -> ConsortiumUser.this.enrollment = enrollment);
+            return this;
+        }
+
+        /**
+         * apply all the changes and save the user state once, nothing is written if there is no change.
+         * @return the edited user
+         */
+        public ConsortiumUser commit() {
+            if(changes.isEmpty()){
+                return ConsortiumUser.this;
+            }
+            synchronized (ConsortiumUser.this){
+                for(Runnable change : changes){
+                    change.run();
+                }
+                changes.clear();
+                saveState();
+            }
+            return ConsortiumUser.this;
+        }
+    }
+
     public static String toKeyValStoreName(String name, String org){
-        logger.info("toKeyValStoreName = " + "user." + name + org);
+        logger.debug("toKeyValStoreName = user.{}{}",name,org);
         return "user." + name + org;
     }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.sdk.Enrollment;
+
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * compact binary format of the {@link ConsortiumUser} state.
+ * <pre class="code">
+ *     state       := [byte version] name organization mspId account affiliation enrollmentSecret roles enrollment
+ *     string      := [boolean present][utf]
+ *     roles       := [int count, -1 for null] string*
+ *     enrollment  := [boolean present][utf keyAlgorithm][int length][PKCS#8 key]
+ *                    [byte certificateType][int length][DER certificate | UTF-8 PEM]
+ * </pre>
+ * a certificate is stored as DER only when the PEM is that single certificate in the canonical layout,
+ * a chain or any other text is stored as the original PEM, so the decoded enrollment always has the same text.
+ * the bytes are stored as base64 behind the {@link #PREFIX} marker, which can never start a
+ * legacy hex encoded java serialization blob, so both formats can live in the same store.
+ */
+final class ConsortiumUserCodec {
+    /**
+     * the marker of the values written by this codec.
+     */
+    static final String PREFIX = "u1:";
+    static final byte VERSION = 1;
+    /**
+     * a single certificate, stored as DER and written back as the PEM it was read from.
+     */
+    private static final byte CERTIFICATE_DER = 0;
+    /**
+     * the original PEM bytes, for a chain or any text the DER form would not restore exactly.
+     */
+    private static final byte CERTIFICATE_PEM = 1;
+    private static final String PEM_HEADER = "-----BEGIN CERTIFICATE-----\n";
+    private static final String PEM_FOOTER = "\n-----END CERTIFICATE-----\n";
+
+    private ConsortiumUserCodec() {
+    }
+
+    /**
+     * check if the stored value was written by this codec.
+     * @param value the stored value
+     * @return {@code true} for the binary format; {@code false} for the legacy hex format.
+     */
+    static boolean isEncoded(String value) {
+        return value.startsWith(PREFIX);
+    }
+
+    static String encodeToString(ConsortiumUser user) throws IOException {
+        return PREFIX + Base64.getEncoder().encodeToString(encode(user));
+    }
+
+    static ConsortiumUser decodeFromString(String value) throws IOException {
+        return decode(Base64.getDecoder().decode(value.substring(PREFIX.length())));
+    }
+
+    static byte[] encode(ConsortiumUser user) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(VERSION);
+        writeString(out,user.getName());
+        writeString(out,user.getOrganization());
+        writeString(out,user.getMspId());
+        writeString(out,user.getAccount());
+        writeString(out,user.getAffiliation());
+        writeString(out,user.getEnrollmentSecret());
+        Set<String> roles = user.getRoles();
+        if(null == roles){
+            out.writeInt(-1);
+        }else{
+            out.writeInt(roles.size());
+            for(String role : roles){
+                writeString(out,role);
+            }
+        }
+        Enrollment enrollment = user.getEnrollment();
+        out.writeBoolean(null != enrollment);
+        if(null != enrollment){
+            PrivateKey key = enrollment.getKey();
+            out.writeUTF(key.getAlgorithm());
+            writeBytes(out,key.getEncoded());
+            String certificate = enrollment.getCert();
+            byte[] der = toDer(certificate);
+            if(null != der){
+                out.writeByte(CERTIFICATE_DER);
+                writeBytes(out,der);
+            }else{
+                out.writeByte(CERTIFICATE_PEM);
+                writeBytes(out,certificate.getBytes(UTF_8));
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * decode the state into a detached {@link ConsortiumUser}.
+     * @param data the encoded state
+     * @return the user, not bound to any store
+     * @throws IOException if the data is corrupt or of an unknown version
+     */
+    static ConsortiumUser decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if(version != VERSION){
+            throw new IOException(String.format("unsupported consortium user state version %d",version));
+        }
+        ConsortiumUser user = new ConsortiumUser(readString(in),readString(in));
+        user.setMspId(readString(in));
+        user.setAccount(readString(in));
+        user.setAffiliation(readString(in));
+        user.setEnrollmentSecret(readString(in));
+        int roleCount = in.readInt();
+        if(roleCount >= 0){
+            Set<String> roles = new LinkedHashSet<String>(roleCount * 2);
+            for(int i = 0; i < roleCount; i++){
+                roles.add(readString(in));
+            }
+            user.setRoles(roles);
+        }
+        if(in.readBoolean()){
+            String algorithm = in.readUTF();
+            byte[] pkcs8 = readBytes(in);
+            byte certificateType = in.readByte();
+            byte[] certificate = readBytes(in);
+            try{
+                PrivateKey key = KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+                String pem = certificateType == CERTIFICATE_DER ? toPem(certificate) : new String(certificate,UTF_8);
+                user.setEnrollment(new ConsortiumStore.StoreEnrollement(key,pem));
+            }catch (GeneralSecurityException ex){
+                throw new IOException(String.format("could not restore the %s private key of %s",algorithm,user.getName()),ex);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * @return the DER bytes of a PEM holding a single certificate that {@link #toPem} writes back as is,
+     * {@code null} to keep the original text: a chain, extra text or another line layout.
+     */
+    private static byte[] toDer(String pem) {
+        if(null == pem){
+            return null;
+        }
+        try{
+            Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509")
+                    .generateCertificates(new ByteArrayInputStream(pem.getBytes(UTF_8)));
+            if(certificates.size() != 1){
+                return null;
+            }
+            byte[] der = certificates.iterator().next().getEncoded();
+            return toPem(der).equals(pem) ? der : null;
+        }catch (CertificateException ex){
+            //not a X.509 certificate, keep the text as it is
+            return null;
+        }
+    }
+
+    private static String toPem(byte[] der) {
+        return PEM_HEADER + Base64.getMimeEncoder(64,"\n".getBytes(UTF_8)).encodeToString(der) + PEM_FOOTER;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(null != value);
+        if(null != value){
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > in.available()){
+            throw new IOException(String.format("invalid field length %d",length));
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+}
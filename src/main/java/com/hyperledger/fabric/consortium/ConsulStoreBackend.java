@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.ecwid.consul.ConsulException;
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ConsortiumStoreBackend} keeping the values in the Consul KV store, so that all the
+ * application nodes share the same enrollment state.
+ * reads go through a local cache, a watcher thread runs blocking queries on the key prefix
+ * and refreshes or drops the cached entries that were changed by any node, so the hot
+ * reads never leave the JVM.
+ */
+public class ConsulStoreBackend implements ConsortiumStoreBackend {
+    private static final Logger logger = LoggerFactory.getLogger(ConsulStoreBackend.class);
+    private static final long MAX_BACKOFF_MILLIS = 30000L;
+
+    private final ConsulClient consulClient;
+    private final String keyPrefix;
+    private final long watchSeconds;
+    /**
+     * the cached values, an empty {@link Optional} caches a key known to be absent.
+     */
+    private final Map<String,Optional<String>> cache = new ConcurrentHashMap<String, Optional<String>>();
+    private final Thread watcher;
+    private volatile boolean running = true;
+    private volatile long watchIndex;
+    /**
+     * bumped under {@link #watchLock} each time the watcher changes or drops cached entries, a read-through
+     * miss that overlapped a bump may hold a value the watcher already replaced, it is returned but not cached.
+     */
+    private volatile long watchEpoch;
+    private final Object watchLock = new Object();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final AtomicLong staleReadCount = new AtomicLong();
+
+    public ConsulStoreBackend(String host, int port, String keyPrefix){
+        this(new ConsulClient(host,port),keyPrefix,55L);
+    }
+
+    /**
+     * @param consulClient the consul client
+     * @param keyPrefix the prefix of all the keys of this store, e.g. {@code fabric/consortium/}
+     * @param watchSeconds the wait time of a single blocking query
+     */
+    public ConsulStoreBackend(ConsulClient consulClient, String keyPrefix, long watchSeconds){
+        this.consulClient = consulClient;
+        this.keyPrefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        this.watchSeconds = watchSeconds;
+        this.watcher = new Thread(this::watch,"consortium-store-consul-watch");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    @Override
+    public String getValue(String name){
+        Optional<String> cached = cache.get(name);
+        if(null != cached){
+            hitCount.incrementAndGet();
+            return cached.orElse(null);
+        }
+        missCount.incrementAndGet();
+        long epoch = watchEpoch;
+        Response<GetValue> response = consulClient.getKVValue(keyPrefix + name);
+        GetValue value = response.getValue();
+        String result = null == value ? null : value.getDecodedValue();
+        synchronized (watchLock){
+            //the watcher only refreshes the cached keys, it skipped this one while it was read
+            if(epoch == watchEpoch){
+                cache.putIfAbsent(name,Optional.ofNullable(result));
+            }else{
+                staleReadCount.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setValue(String name, String value){
+        Response<Boolean> response = consulClient.setKVValue(keyPrefix + name,value);
+        if(!Boolean.TRUE.equals(response.getValue())){
+            throw new IllegalStateException(String.format("consul refused to set the key %s%s",keyPrefix,name));
+        }
+        cache.put(name,Optional.of(value));
+    }
+
+    /**
+     * consul acknowledges every write after it has been committed, nothing is pending.
+     */
+    @Override
+    public void flush(){
+        //NOOP
+    }
+
+    @Override
+    public void close(){
+        running = false;
+        watcher.interrupt();
+        try{
+            watcher.join(TimeUnit.SECONDS.toMillis(1));
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * run blocking queries on the key prefix and apply the changes to the cache.
+     */
+    private void watch(){
+        long backoff = 100L;
+        while (running){
+            try{
+                Response<List<GetValue>> response = consulClient.getKVValues(keyPrefix,new QueryParams(watchSeconds,watchIndex));
+                long index = null == response.getConsulIndex() ? 0L : response.getConsulIndex();
+                if(index < watchIndex){
+                    //the index went backwards, consul asks for a full resync
+                    logger.warn("consul index of {} went backwards from {} to {}, resync the cache",keyPrefix,watchIndex,index);
+                    clear();
+                    watchIndex = 0L;
+                    continue;
+                }
+                if(index != watchIndex){
+                    apply(response.getValue(),watchIndex);
+                    watchIndex = index;
+                }
+                backoff = 100L;
+            }catch (ConsulException ex){
+                if(!running){
+                    return;
+                }
+                logger.error("exception happened when watch the consul prefix {}, retry in {} ms,ex={}",keyPrefix,backoff,ex);
+                //the cache can't be trusted without a running watch
+                clear();
+                watchIndex = 0L;
+                try{
+                    Thread.sleep(backoff);
+                }catch (InterruptedException ie){
+                    return;
+                }
+                backoff = Math.min(backoff * 2,MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void clear(){
+        synchronized (watchLock){
+            watchEpoch++;
+            cache.clear();
+        }
+    }
+
+    private void apply(List<GetValue> values, long previousIndex){
+        synchronized (watchLock){
+            watchEpoch++;
+            applyLocked(values,previousIndex);
+        }
+    }
+
+    private void applyLocked(List<GetValue> values, long previousIndex){
+        Set<String> present = new HashSet<String>();
+        if(null != values){
+            for(GetValue value : values){
+                String name = value.getKey().substring(keyPrefix.length());
+                present.add(name);
+                if(value.getModifyIndex() > previousIndex && cache.containsKey(name)){
+                    cache.put(name,Optional.ofNullable(value.getDecodedValue()));
+                    invalidationCount.incrementAndGet();
+                }
+            }
+        }
+        for(Map.Entry<String,Optional<String>> entry : cache.entrySet()){
+            if(entry.getValue().isPresent() && !present.contains(entry.getKey())){
+                //deleted by another node
+                cache.remove(entry.getKey(),entry.getValue());
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * @return the number of read-through misses not cached because the watcher changed the cache meanwhile.
+     */
+    public long getStaleReadCount() {
+        return staleReadCount.get();
+    }
+
+    /**
+     * @return the consul index the cache is in sync with.
+     */
+    long getWatchIndex() {
+        return watchIndex;
+    }
+
+    public int getCachedCount() {
+        return cache.size();
+    }
+}
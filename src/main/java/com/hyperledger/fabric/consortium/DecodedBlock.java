@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TxReadWriteSetInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * a committed block decoded once for all the subscribers of a {@link BlockEventPipeline}: the transactions
+ * with their validation code, chaincode events and writes. the values written are kept as the protobuf
+ * {@link ByteString}s of the block, they are not copied.
+ */
+public final class DecodedBlock {
+    private final BlockInfo block;
+    private final long blockNumber;
+    private final String channelId;
+    private final List<Transaction> transactions;
+
+    private DecodedBlock(BlockInfo block, String channelId, List<Transaction> transactions) {
+        this.block = block;
+        this.blockNumber = block.getBlockNumber();
+        this.channelId = channelId;
+        this.transactions = Collections.unmodifiableList(transactions);
+    }
+
+    /**
+     * decode the transaction envelopes of a block, the config envelopes are skipped.
+     * @param block the block event, or a block queried from a peer
+     * @return the decoded block
+     * @throws InvalidProtocolBufferException if an envelope or a read write set can't be decoded
+     */
+    public static DecodedBlock decode(BlockInfo block) throws InvalidProtocolBufferException {
+        List<Transaction> transactions = new ArrayList<>(block.getEnvelopeCount());
+        String channelId = null;
+        int index = 0;
+        for (BlockInfo.EnvelopeInfo envelopeInfo : block.getEnvelopeInfos()) {
+            int envelopeIndex = index++;
+            if (null == channelId) {
+                channelId = envelopeInfo.getChannelId();
+            }
+            if (envelopeInfo.getType() != BlockInfo.EnvelopeType.TRANSACTION_ENVELOPE) {
+                continue;
+            }
+            List<ChaincodeEvent> chaincodeEvents = new ArrayList<>(1);
+            List<Write> writes = new ArrayList<>();
+            for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo actionInfo :
+                    ((BlockInfo.TransactionEnvelopeInfo) envelopeInfo).getTransactionActionInfos()) {
+                ChaincodeEvent chaincodeEvent = actionInfo.getEvent();
+                if (null != chaincodeEvent) {
+                    chaincodeEvents.add(chaincodeEvent);
+                }
+                TxReadWriteSetInfo rwsetInfo = actionInfo.getTxReadWriteSet();
+                if (null == rwsetInfo) {
+                    continue;
+                }
+                for (TxReadWriteSetInfo.NsRwsetInfo nsRwsetInfo : rwsetInfo.getNsRwsetInfos()) {
+                    String namespace = nsRwsetInfo.getNamespace();
+                    for (KvRwset.KVWrite write : nsRwsetInfo.getRwset().getWritesList()) {
+                        writes.add(new Write(namespace, write.getKey(), write.getIsDelete(), write.getValue()));
+                    }
+                }
+            }
+            transactions.add(new Transaction(envelopeInfo.getTransactionID(), envelopeIndex, envelopeInfo.getValidationCode(),
+                    envelopeInfo.getTimestamp(), chaincodeEvents, writes));
+        }
+        return new DecodedBlock(block, channelId, transactions);
+    }
+
+    /**
+     * @return the raw block, for the consumers needing more than the decoded parts.
+     */
+    public BlockInfo getBlock() {
+        return block;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * @return the transactions of the block, valid or not, in the block order.
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedBlock{blockNumber=" + blockNumber + ", channelId=" + channelId + ", transactions=" + transactions.size() + "}";
+    }
+
+    public static final class Transaction {
+        private final String transactionId;
+        private final int index;
+        private final byte validationCode;
+        private final Date timestamp;
+        private final List<ChaincodeEvent> chaincodeEvents;
+        private final List<Write> writes;
+
+        Transaction(String transactionId, int index, byte validationCode, Date timestamp, List<ChaincodeEvent> chaincodeEvents, List<Write> writes) {
+            this.transactionId = transactionId;
+            this.index = index;
+            this.validationCode = validationCode;
+            this.timestamp = timestamp;
+            this.chaincodeEvents = Collections.unmodifiableList(chaincodeEvents);
+            this.writes = Collections.unmodifiableList(writes);
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        /**
+         * @return the index of the transaction envelope in the block.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public byte getValidationCode() {
+            return validationCode;
+        }
+
+        public boolean isValid() {
+            return validationCode == TxValidationCode.VALID_VALUE;
+        }
+
+        public Date getTimestamp() {
+            return timestamp;
+        }
+
+        public List<ChaincodeEvent> getChaincodeEvents() {
+            return chaincodeEvents;
+        }
+
+        /**
+         * @return the writes of the transaction, applied to the ledger only if it is valid.
+         */
+        public List<Write> getWrites() {
+            return writes;
+        }
+    }
+
+    public static final class Write {
+        private final String namespace;
+        private final String key;
+        private final boolean delete;
+        private final ByteString value;
+
+        Write(String namespace, String key, boolean delete, ByteString value) {
+            this.namespace = namespace;
+            this.key = key;
+            this.delete = delete;
+            this.value = value;
+        }
+
+        /**
+         * @return the chaincode name.
+         */
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isDelete() {
+            return delete;
+        }
+
+        public ByteString getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.common.MspPrincipal.MSPPrincipal;
+import org.hyperledger.fabric.protos.common.MspPrincipal.MSPRole;
+import org.hyperledger.fabric.protos.common.Policies.SignaturePolicy;
+import org.hyperledger.fabric.protos.common.Policies.SignaturePolicyEnvelope;
+import org.hyperledger.fabric.sdk.ChaincodeEndorsementPolicy;
+import org.hyperledger.fabric.sdk.exception.ChaincodeEndorsementPolicyParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * picks the endorsers of a proposal from the chaincode endorsement policy instead of asking every peer of
+ * the channel: the smallest set of peers satisfying the {@link SignaturePolicy} rules, preferring the peers
+ * ranked first. a peer satisfies the {@code member} and {@code peer} roles of the MSP it belongs to, and
+ * endorses for one principal of the policy only. the sets are searched by size, so the selection is minimal;
+ * the peers of a channel are few, the search stays small.
+ * <pre class="code">
+ *     OR(Org1MSP.member, Org2MSP.member)      one peer of Org1 or Org2, the fastest
+ *     AND(Org1MSP.member, Org2MSP.member)     the fastest peer of each org
+ * </pre>
+ */
+public class EndorserSelector {
+    private static final Logger logger = LoggerFactory.getLogger(EndorserSelector.class);
+
+    private final SignaturePolicyEnvelope policy;
+    private final Map<String,String> mspIds;
+
+    /**
+     * @param policy the endorsement policy of the chaincode
+     * @param mspIds the MSP id of each peer, by peer name
+     */
+    public EndorserSelector(SignaturePolicyEnvelope policy, Map<String,String> mspIds){
+        this.policy = policy;
+        this.mspIds = new HashMap<String, String>(mspIds);
+    }
+
+    /**
+     * load the endorsement policy of a chaincode from the yaml file given at its instantiation.
+     * @param policyFile the yaml policy file
+     * @param mspIds the MSP id of each peer, by peer name
+     * @return the selector
+     * @throws IOException if the policy can't be read or parsed
+     */
+    public static EndorserSelector fromYamlFile(File policyFile, Map<String,String> mspIds) throws IOException {
+        try{
+            ChaincodeEndorsementPolicy endorsementPolicy = new ChaincodeEndorsementPolicy();
+            endorsementPolicy.fromYamlFile(policyFile);
+            return new EndorserSelector(SignaturePolicyEnvelope.parseFrom(endorsementPolicy.getChaincodeEndorsementPolicyAsBytes()),mspIds);
+        }catch (ChaincodeEndorsementPolicyParseException | InvalidProtocolBufferException ex){
+            throw new IOException(String.format("invalid endorsement policy %s",policyFile.getAbsolutePath()),ex);
+        }
+    }
+
+    /**
+     * @param ranked the candidate peers, the preferred first
+     * @param name the name of a peer
+     * @return the endorsers, or {@code null} if the candidates can't satisfy the policy
+     */
+    public <T> List<T> select(List<T> ranked, Function<T,String> name){
+        //the peers of an MSP are interchangeable for the policy, only how many of them are taken matters
+        Map<String,List<Integer>> peersByMsp = new LinkedHashMap<String, List<Integer>>();
+        for(int i = 0; i < ranked.size(); i++){
+            String mspId = mspIds.get(name.apply(ranked.get(i)));
+            if(null != mspId){
+                peersByMsp.computeIfAbsent(mspId,m -> new ArrayList<Integer>()).add(i);
+            }
+        }
+        List<String> msps = new ArrayList<String>(peersByMsp.keySet());
+        int[] available = new int[msps.size()];
+        for(int m = 0; m < available.length; m++){
+            available[m] = peersByMsp.get(msps.get(m)).size();
+        }
+        int[] best = null;
+        long bestCost = Long.MAX_VALUE;
+        for(int size = 0; size <= ranked.size() && null == best; size++){
+            for(int[] counts : countsOfSize(available,size)){
+                if(!satisfiable(Collections.singletonList(policy.getRule()),msps,counts.clone())){
+                    continue;
+                }
+                long cost = 0L;
+                for(int m = 0; m < counts.length; m++){
+                    for(int i = 0; i < counts[m]; i++){
+                        cost += peersByMsp.get(msps.get(m)).get(i);
+                    }
+                }
+                if(cost < bestCost){
+                    best = counts;
+                    bestCost = cost;
+                }
+            }
+        }
+        if(null == best){
+            logger.debug("the peers {} can't satisfy the endorsement policy",peersByMsp);
+            return null;
+        }
+        List<Integer> selected = new ArrayList<Integer>();
+        for(int m = 0; m < best.length; m++){
+            selected.addAll(peersByMsp.get(msps.get(m)).subList(0,best[m]));
+        }
+        Collections.sort(selected);
+        List<T> endorsers = new ArrayList<T>(selected.size());
+        for(Integer index : selected){
+            endorsers.add(ranked.get(index));
+        }
+        return endorsers;
+    }
+
+    /**
+     * every way to take {@code size} peers from the MSPs, as the number of peers taken from each MSP.
+     */
+    private static List<int[]> countsOfSize(int[] available, int size){
+        List<int[]> all = new ArrayList<int[]>();
+        countsOfSize(available,0,size,new int[available.length],all);
+        return all;
+    }
+
+    private static void countsOfSize(int[] available, int msp, int remaining, int[] counts, List<int[]> all){
+        if(msp == available.length){
+            if(remaining == 0){
+                all.add(counts.clone());
+            }
+            return;
+        }
+        for(int count = Math.min(available[msp],remaining); count >= 0; count--){
+            counts[msp] = count;
+            countsOfSize(available,msp + 1,remaining - count,counts,all);
+        }
+        counts[msp] = 0;
+    }
+
+    /**
+     * check that all the rules hold together, each peer endorsing for one principal only. the choices of the
+     * {@code N_OUT_OF} rules and of the MSP consumed by each principal are backtracked.
+     * @param rules the rules to satisfy together
+     * @param msps the MSP ids
+     * @param available the number of peers left by MSP, restored on return
+     */
+    private boolean satisfiable(List<SignaturePolicy> rules, List<String> msps, int[] available){
+        if(rules.isEmpty()){
+            return true;
+        }
+        SignaturePolicy rule = rules.get(0);
+        List<SignaturePolicy> rest = rules.subList(1,rules.size());
+        switch (rule.getTypeCase()){
+            case SIGNED_BY:
+                MSPPrincipal principal = policy.getIdentities(rule.getSignedBy());
+                for(int m = 0; m < available.length; m++){
+                    if(available[m] > 0 && satisfies(msps.get(m),principal)){
+                        available[m]--;
+                        boolean satisfied = satisfiable(rest,msps,available);
+                        available[m]++;
+                        if(satisfied){
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case N_OUT_OF:
+                List<SignaturePolicy> subRules = rule.getNOutOf().getRulesList();
+                int n = rule.getNOutOf().getN();
+                if(n > subRules.size()){
+                    return false;
+                }
+                for(List<SignaturePolicy> chosen : combinations(subRules,n)){
+                    List<SignaturePolicy> goals = new ArrayList<SignaturePolicy>(chosen);
+                    goals.addAll(rest);
+                    if(satisfiable(goals,msps,available)){
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static List<List<SignaturePolicy>> combinations(List<SignaturePolicy> rules, int n){
+        List<List<SignaturePolicy>> all = new ArrayList<List<SignaturePolicy>>();
+        combinations(rules,0,n,new ArrayList<SignaturePolicy>(n),all);
+        return all;
+    }
+
+    private static void combinations(List<SignaturePolicy> rules, int from, int n, List<SignaturePolicy> chosen, List<List<SignaturePolicy>> all){
+        if(chosen.size() == n){
+            all.add(new ArrayList<SignaturePolicy>(chosen));
+            return;
+        }
+        for(int i = from; i <= rules.size() - (n - chosen.size()); i++){
+            chosen.add(rules.get(i));
+            combinations(rules,i + 1,n,chosen,all);
+            chosen.remove(chosen.size() - 1);
+        }
+    }
+
+    private static boolean satisfies(String mspId, MSPPrincipal principal){
+        if(null == mspId || principal.getPrincipalClassification() != MSPPrincipal.Classification.ROLE){
+            return false;
+        }
+        try{
+            MSPRole role = MSPRole.parseFrom(principal.getPrincipal());
+            return mspId.equals(role.getMspIdentifier())
+                    && (role.getRole() == MSPRole.MSPRoleType.MEMBER || role.getRole() == MSPRole.MSPRoleType.PEER);
+        }catch (InvalidProtocolBufferException ex){
+            logger.warn("invalid MSP principal in the endorsement policy:{}",ex);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import org.hyperledger.fabric.sdk.BlockEvent;
+
+/**
+ * the outcome of a committed transaction of {@link ConsortiumChaincodeManager#invokeAsync}:
+ * the endorsed payload and the commit status reported by the transaction event.
+ */
+public class InvokeResult {
+    private final String transactionId;
+    private final String payload;
+    private final byte validationCode;
+    private final long blockNumber;
+
+    public InvokeResult(String transactionId, String payload, byte validationCode, long blockNumber) {
+        this.transactionId = transactionId;
+        this.payload = payload;
+        this.validationCode = validationCode;
+        this.blockNumber = blockNumber;
+    }
+
+    InvokeResult(String transactionId, String payload, BlockEvent.TransactionEvent event) {
+        this(transactionId, payload, event.getValidationCode(), event.getBlockEvent().getBlockNumber());
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @return the chaincode response payload of the endorsement, as UTF-8 text.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the {@link TxValidationCode} number of the committed transaction.
+     */
+    public byte getValidationCode() {
+        return validationCode;
+    }
+
+    /**
+     * @return {@code true} if the committing peer validated the transaction.
+     */
+    public boolean isValid() {
+        return validationCode == TxValidationCode.VALID_VALUE;
+    }
+
+    /**
+     * @return the number of the block holding the transaction.
+     */
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    @Override
+    public String toString() {
+        TxValidationCode code = TxValidationCode.forNumber(validationCode);
+        return String.format("InvokeResult{transactionId=%s, validationCode=%s, blockNumber=%d}",
+                transactionId, null == code ? validationCode : code, blockNumber);
+    }
+}
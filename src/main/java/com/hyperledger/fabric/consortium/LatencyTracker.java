@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * recent latencies of the peers of a channel: an exponentially weighted moving average used to rank the
+ * peers and a window of the last samples used for the percentiles. a failure counts as a sample of twice
+ * the current average, so that a failing peer drops in the ranking without being excluded for good.
+ */
+public class LatencyTracker {
+    private static final double ALPHA = 0.2d;
+
+    private final int windowSize;
+    private final int minSamples;
+    private final Map<String,Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+    public LatencyTracker(){
+        this(128,8);
+    }
+
+    /**
+     * @param windowSize the number of recent samples kept per endpoint for the percentiles
+     * @param minSamples the number of samples required before a percentile is reported
+     */
+    public LatencyTracker(int windowSize, int minSamples){
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+    }
+
+    public void record(String name, long latencyNanos){
+        statsOf(name).record(latencyNanos);
+    }
+
+    public void recordFailure(String name){
+        statsOf(name).recordFailure();
+    }
+
+    /**
+     * @param name the endpoint name
+     * @return the moving average latency, {@code 0} before the first sample
+     */
+    public long getAverageNanos(String name){
+        Stats s = stats.get(name);
+        return null == s ? 0L : s.average();
+    }
+
+    /**
+     * @param name the endpoint name
+     * @param percentile between {@code 0} and {@code 1}
+     * @return the latency percentile of the recent samples, {@code -1} while there are fewer than the minimum samples
+     */
+    public long getPercentileNanos(String name, double percentile){
+        Stats s = stats.get(name);
+        return null == s ? -1L : s.percentile(percentile);
+    }
+
+    /**
+     * the deadline of the next request to an endpoint: a multiple of a percentile of its recent latencies.
+     * @param name the endpoint name
+     * @param percentile between {@code 0} and {@code 1}
+     * @param multiplier the margin over the percentile
+     * @param minMillis the lower bound of the deadline
+     * @param maxMillis the upper bound of the deadline, also used while the endpoint has too few samples
+     * @return the deadline in milliseconds
+     */
+    public long getDeadlineMillis(String name, double percentile, double multiplier, long minMillis, long maxMillis){
+        long percentileNanos = getPercentileNanos(name,percentile);
+        if(percentileNanos < 0){
+            return maxMillis;
+        }
+        long deadline = (long) (percentileNanos * multiplier / 1_000_000d);
+        return Math.max(minMillis, Math.min(maxMillis, deadline));
+    }
+
+    /**
+     * order the endpoints by their average latency, the endpoints without samples first so that they get measured.
+     * @param endpoints the endpoints
+     * @param name the name of an endpoint
+     * @return the endpoints from the fastest to the slowest
+     */
+    public <T> List<T> rank(Collection<T> endpoints, Function<T,String> name){
+        List<T> ranked = new ArrayList<T>(endpoints);
+        ranked.sort(Comparator.comparingLong(endpoint -> getAverageNanos(name.apply(endpoint))));
+        return ranked;
+    }
+
+    private Stats statsOf(String name){
+        return stats.computeIfAbsent(name, key -> new Stats(windowSize));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LatencyTracker{");
+        for(Map.Entry<String,Stats> entry : stats.entrySet()){
+            builder.append(entry.getKey()).append("=").append(entry.getValue().average() / 1000L).append("us ");
+        }
+        return builder.append("}").toString();
+    }
+
+    private final class Stats {
+        private final long[] samples;
+        private int next;
+        private int count;
+        private double average;
+        private boolean measured;
+
+        Stats(int windowSize){
+            this.samples = new long[windowSize];
+        }
+
+        synchronized void record(long latencyNanos){
+            samples[next] = latencyNanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            average = measured ? average + ALPHA * (latencyNanos - average) : latencyNanos;
+            measured = true;
+        }
+
+        synchronized void recordFailure(){
+            double penalty = Math.max(average * 2, 1_000_000d);
+            average = measured ? average + ALPHA * (penalty - average) : penalty;
+            measured = true;
+        }
+
+        synchronized long average(){
+            return (long) average;
+        }
+
+        synchronized long percentile(double percentile){
+            if(count < minSamples){
+                return -1L;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, Math.max(0, (int) Math.ceil(percentile * count) - 1))];
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * append-only, memory-mapped {@link ConsortiumStoreBackend}.
+ * <pre class="code">
+ *     record := [int length][int crc32][byte type][int keyLength][key bytes][value bytes]
+ * </pre>
+ * {@code length} counts the bytes from {@code type} to the end of the value and the crc covers the same range.
+ * every write is a single append, an in-memory index maps the keys to the latest record.
+ * on open the log is scanned from the start, the first empty or torn record marks the tail.
+ * once the dead bytes of the overwritten records pass the configured ratio the live records
+ * are copied into a fresh log by a background compactor and atomically renamed over the old one.
+ * the records never change once written, so the compactor copies them from a snapshot of the index without
+ * blocking the reads and writes; it takes the write lock only to copy the records appended since the snapshot
+ * and to swap the logs.
+ */
+public class LogStructuredStoreBackend implements ConsortiumStoreBackend {
+    private static final Logger logger = LoggerFactory.getLogger(LogStructuredStoreBackend.class);
+    private static final int RECORD_HEADER = 8;
+    private static final int BODY_HEADER = 5;
+    private static final byte TYPE_PUT = 1;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE;
+
+    private final File file;
+    private final double compactionRatio;
+    private final long compactionMinBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String,Record> index = new HashMap<String, Record>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long deadBytes;
+
+    private final ExecutorService compactor;
+    /**
+     * serializes the compactions.
+     */
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final AtomicLong compactionCount = new AtomicLong();
+
+    public LogStructuredStoreBackend(File file) throws IOException {
+        this(file,0.5d,INITIAL_CAPACITY);
+    }
+
+    /**
+     * open or create the log.
+     * @param file the log file
+     * @param compactionRatio the dead bytes / written bytes ratio that triggers a compaction
+     * @param compactionMinBytes the dead bytes below which no compaction is started
+     * @throws IOException
+     */
+    public LogStructuredStoreBackend(File file, double compactionRatio, long compactionMinBytes) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.compactionRatio = compactionRatio;
+        this.compactionMinBytes = compactionMinBytes;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable,"consortium-store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.channel = new RandomAccessFile(this.file,"rw").getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE,0,Math.max(INITIAL_CAPACITY,channel.size()));
+        recover();
+    }
+
+    /**
+     * rebuild the index by scanning the log, and cut the log at the first torn record.
+     */
+    private void recover(){
+        int position = 0;
+        int capacity = buffer.capacity();
+        boolean torn = false;
+        while (position + RECORD_HEADER + BODY_HEADER <= capacity){
+            int length = buffer.getInt(position);
+            if(length == 0){
+                break;
+            }
+            if(length < BODY_HEADER || (long) position + RECORD_HEADER + length > capacity){
+                torn = true;
+                break;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER);
+            view.get(body);
+            if(crc(body) != buffer.getInt(position + 4) || body[0] != TYPE_PUT){
+                torn = true;
+                break;
+            }
+            int keyLength = ByteBuffer.wrap(body,1,4).getInt();
+            if(keyLength < 0 || keyLength > length - BODY_HEADER){
+                torn = true;
+                break;
+            }
+            String key = new String(body,BODY_HEADER,keyLength,UTF_8);
+            int valueOffset = position + RECORD_HEADER + BODY_HEADER + keyLength;
+            Record prior = index.put(key,new Record(position,RECORD_HEADER + length,valueOffset,length - BODY_HEADER - keyLength));
+            if(null != prior){
+                deadBytes += prior.size;
+            }
+            position += RECORD_HEADER + length;
+        }
+        writePosition = position;
+        if(torn){
+            logger.warn("found a torn record at position {} of {}, the tail of the log is discarded",position,file);
+            //clear the tail so a stale record behind it can never be read back after the next append
+            for(int i = position; i < capacity; i++){
+                buffer.put(i,(byte) 0);
+            }
+        }
+        logger.info("recovered {} keys from {}, tail at {}, dead bytes {}",index.size(),file,writePosition,deadBytes);
+    }
+
+    @Override
+    public String getValue(String name){
+        lock.readLock().lock();
+        try{
+            Record record = index.get(name);
+            if(null == record){
+                return null;
+            }
+            byte[] value = new byte[record.valueLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(record.valueOffset);
+            view.get(value);
+            return new String(value,UTF_8);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setValue(String name, String value){
+        byte[] key = name.getBytes(UTF_8);
+        byte[] data = value.getBytes(UTF_8);
+        byte[] body = new byte[BODY_HEADER + key.length + data.length];
+        ByteBuffer.wrap(body).put(TYPE_PUT).putInt(key.length).put(key).put(data);
+        int crc = crc(body);
+        boolean compact;
+        lock.writeLock().lock();
+        try{
+            ensureCapacity(RECORD_HEADER + body.length);
+            int position = writePosition;
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER);
+            view.put(body);
+            buffer.putInt(position + 4,crc);
+            //the length goes last, a record without it is never read back
+            buffer.putInt(position,body.length);
+            writePosition = position + RECORD_HEADER + body.length;
+            Record prior = index.put(name,new Record(position,RECORD_HEADER + body.length,
+                    position + RECORD_HEADER + BODY_HEADER + key.length,data.length));
+            if(null != prior){
+                deadBytes += prior.size;
+            }
+            compact = deadBytes >= compactionMinBytes && deadBytes > compactionRatio * writePosition;
+        }catch (IOException ex){
+            logger.error("exception happened when append {} into {},ex={}",name,file,ex);
+            throw new UncheckedIOException(ex);
+        }finally {
+            lock.writeLock().unlock();
+        }
+        if(compact && compactionScheduled.compareAndSet(false,true)){
+            compactor.execute(() -> {
+                try{
+                    compact();
+                }catch (IOException ex){
+                    logger.error("exception happened when compact {},ex={}",file,ex);
+                }finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * grow the mapping so that {@code required} more bytes fit behind the tail.
+     * must be called with the write lock held.
+     */
+    private void ensureCapacity(int required) throws IOException {
+        long needed = (long) writePosition + required;
+        if(needed <= buffer.capacity()){
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < needed){
+            capacity <<= 1;
+        }
+        if(needed > MAX_CAPACITY){
+            throw new IOException(String.format("the log %s can't grow beyond %d bytes",file,MAX_CAPACITY));
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE,0,Math.min(capacity,MAX_CAPACITY));
+        logger.debug("grow the mapping of {} to {} bytes",file,buffer.capacity());
+    }
+
+    /**
+     * copy the live records into a fresh log and swap it in.
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock){
+            compactLocked();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        long start = System.nanoTime();
+        File compacted = new File(file.getPath() + ".compact");
+        Map<String,Record> snapshot;
+        MappedByteBuffer source;
+        int snapshotEnd;
+        long live;
+        lock.readLock().lock();
+        try{
+            snapshot = new HashMap<String, Record>(index);
+            //the mapping stays readable after a remap, the records before the tail never change
+            source = buffer;
+            snapshotEnd = writePosition;
+            live = (long) writePosition - deadBytes;
+        }finally {
+            lock.readLock().unlock();
+        }
+        Files.deleteIfExists(compacted.toPath());
+        FileChannel target = new RandomAccessFile(compacted,"rw").getChannel();
+        boolean swapped = false;
+        try{
+            MappedByteBuffer targetBuffer = target.map(FileChannel.MapMode.READ_WRITE,0,capacityFor(live * 2));
+            Map<String,Record> targetIndex = new HashMap<String, Record>(snapshot.size() * 2);
+            int position = copy(snapshot,source,targetBuffer,targetIndex,0);
+            lock.writeLock().lock();
+            try{
+                //the records appended during the copy
+                Map<String,Record> appended = new HashMap<String, Record>();
+                long appendedBytes = 0;
+                for(Map.Entry<String,Record> entry : index.entrySet()){
+                    if(entry.getValue().offset >= snapshotEnd){
+                        appended.put(entry.getKey(),entry.getValue());
+                        appendedBytes += entry.getValue().size;
+                    }
+                }
+                if(position + appendedBytes > targetBuffer.capacity()){
+                    targetBuffer.force();
+                    targetBuffer = target.map(FileChannel.MapMode.READ_WRITE,0,capacityFor((position + appendedBytes) * 2));
+                }
+                long dead = 0;
+                for(Map.Entry<String,Record> entry : appended.entrySet()){
+                    Record prior = targetIndex.get(entry.getKey());
+                    if(null != prior){
+                        dead += prior.size;
+                    }
+                }
+                position = copy(appended,buffer,targetBuffer,targetIndex,position);
+                targetBuffer.force();
+                Files.move(compacted.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+                swapped = true;
+                channel.close();
+                channel = target;
+                buffer = targetBuffer;
+                index = targetIndex;
+                logger.info("compacted {} from {} to {} bytes in {} ms, {} records appended meanwhile",file,writePosition,position,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),appended.size());
+                writePosition = position;
+                deadBytes = dead;
+                compactionCount.incrementAndGet();
+            }finally {
+                lock.writeLock().unlock();
+            }
+        }finally {
+            if(!swapped){
+                target.close();
+                Files.deleteIfExists(compacted.toPath());
+            }
+        }
+    }
+
+    /**
+     * copy the records of an index from a log to another, from {@code position} on.
+     * @return the position after the last record copied
+     */
+    private static int copy(Map<String,Record> records, MappedByteBuffer source, MappedByteBuffer target,
+                            Map<String,Record> targetIndex, int position){
+        ByteBuffer targetView = target.duplicate();
+        for(Map.Entry<String,Record> entry : records.entrySet()){
+            Record record = entry.getValue();
+            ByteBuffer sourceView = source.duplicate();
+            sourceView.position(record.offset);
+            sourceView.limit(record.offset + record.size);
+            targetView.position(position);
+            targetView.put(sourceView);
+            targetIndex.put(entry.getKey(),new Record(position,record.size,
+                    position + (record.valueOffset - record.offset),record.valueLength));
+            position += record.size;
+        }
+        return position;
+    }
+
+    private static long capacityFor(long bytes){
+        long capacity = INITIAL_CAPACITY;
+        while (capacity < bytes && capacity < MAX_CAPACITY){
+            capacity <<= 1;
+        }
+        return Math.min(capacity,MAX_CAPACITY);
+    }
+
+    /**
+     * force the mapped pages of the log to the disk.
+     */
+    @Override
+    public void flush(){
+        lock.readLock().lock();
+        try{
+            buffer.force();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close(){
+        compactor.shutdown();
+        try{
+            compactor.awaitTermination(1,TimeUnit.MINUTES);
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try{
+            buffer.force();
+            channel.close();
+        }catch (IOException ex){
+            logger.error("exception happened when close {},ex={}",file,ex);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getKeyCount() {
+        lock.readLock().lock();
+        try{
+            return index.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getWrittenBytes() {
+        lock.readLock().lock();
+        try{
+            return writePosition;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getDeadBytes() {
+        lock.readLock().lock();
+        try{
+            return deadBytes;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    private static int crc(byte[] body){
+        CRC32 crc32 = new CRC32();
+        crc32.update(body,0,body.length);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * the location of the latest record of a key.
+     */
+    private static final class Record {
+        private final int offset;
+        private final int size;
+        private final int valueOffset;
+        private final int valueLength;
+        Record(int offset, int size, int valueOffset, int valueLength){
+            this.offset = offset;
+            this.size = size;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * bounded cache of the {@link ConsortiumUser} objects handed out by the {@link ConsortiumStore}.
+ * the keys are spread over lock striped segments, each segment evicts its least recently used
+ * entries beyond its share of the maximum size and, optionally, the entries not accessed for a while.
+ * concurrent misses on the same key share a single load.
+ */
+public class MemberCache {
+    private static final Logger logger = LoggerFactory.getLogger(MemberCache.class);
+
+    /**
+     * loads a member on a cache miss.
+     */
+    public interface MemberLoader {
+        ConsortiumUser load() throws IOException, NoSuchMethodException;
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long expireAfterAccessNanos;
+    private final Map<String,FutureTask<ConsortiumUser>> loading = new ConcurrentHashMap<String, FutureTask<ConsortiumUser>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong totalLoadNanos = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public MemberCache(){
+        this(1024,0L);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached members
+     * @param expireAfterAccessMillis drop the members not accessed within this time, {@code 0} to keep them until evicted by size
+     */
+    public MemberCache(int maximumSize, long expireAfterAccessMillis){
+        this(maximumSize,expireAfterAccessMillis,16);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached members
+     * @param expireAfterAccessMillis drop the members not accessed within this time, {@code 0} to keep them until evicted by size
+     * @param concurrencyLevel the expected number of concurrent writers, rounded up to a power of two segments
+     */
+    public MemberCache(int maximumSize, long expireAfterAccessMillis, int concurrencyLevel){
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < maximumSize){
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        int segmentSize = Math.max(1,(maximumSize + segmentCount - 1) / segmentCount);
+        for(int i = 0; i < segmentCount; i++){
+            segments[i] = new Segment(segmentSize);
+        }
+        this.expireAfterAccessNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterAccessMillis);
+    }
+
+    /**
+     * get the cached member of the key or load it.
+     * @param key the key value store name of the member
+     * @param loader loads the member on a miss, called at most once for concurrent misses on the same key
+     * @return the member
+     * @throws IOException
+     * @throws NoSuchMethodException
+     */
+    public ConsortiumUser get(String key, MemberLoader loader) throws IOException, NoSuchMethodException {
+        ConsortiumUser cached = getIfPresent(key);
+        if(null != cached){
+            return cached;
+        }
+        missCount.incrementAndGet();
+        FutureTask<ConsortiumUser> task = new FutureTask<ConsortiumUser>(loader::load);
+        FutureTask<ConsortiumUser> running = loading.putIfAbsent(key,task);
+        if(null == running){
+            try{
+                long start = System.nanoTime();
+                task.run();
+                totalLoadNanos.addAndGet(System.nanoTime() - start);
+                loadCount.incrementAndGet();
+                ConsortiumUser loaded = await(task);
+                put(key,loaded);
+                return loaded;
+            }catch (IOException | NoSuchMethodException | RuntimeException ex){
+                loadFailureCount.incrementAndGet();
+                throw ex;
+            }finally {
+                loading.remove(key,task);
+            }
+        }
+        return await(running);
+    }
+
+    /**
+     * @param key the key value store name of the member
+     * @return the cached member, or {@code null}
+     */
+    public ConsortiumUser getIfPresent(String key){
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try{
+            Entry entry = segment.get(key);
+            if(null == entry){
+                return null;
+            }
+            long now = System.nanoTime();
+            if(expireAfterAccessNanos > 0 && now - entry.accessNanos > expireAfterAccessNanos){
+                segment.remove(key);
+                evictionCount.incrementAndGet();
+                return null;
+            }
+            entry.accessNanos = now;
+            hitCount.incrementAndGet();
+            return entry.member;
+        }finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void put(String key, ConsortiumUser member){
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try{
+            segment.put(key,new Entry(member));
+        }finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void invalidate(String key){
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try{
+            segment.remove(key);
+        }finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void invalidateAll(){
+        for(Segment segment : segments){
+            segment.lock.lock();
+            try{
+                segment.clear();
+            }finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    public int size(){
+        int size = 0;
+        for(Segment segment : segments){
+            segment.lock.lock();
+            try{
+                size += segment.size();
+            }finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private ConsortiumUser await(FutureTask<ConsortiumUser> task) throws IOException, NoSuchMethodException {
+        try{
+            return task.get();
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the member to be loaded");
+        }catch (ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            if(cause instanceof NoSuchMethodException){
+                throw (NoSuchMethodException) cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private Segment segmentFor(String key){
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0 ? 1.0d : (double) hits / requests;
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
+    }
+
+    public long getTotalLoadNanos() {
+        return totalLoadNanos.get();
+    }
+
+    public long getAverageLoadNanos() {
+        long loads = loadCount.get();
+        return loads == 0 ? 0L : totalLoadNanos.get() / loads;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MemberCache{size=%d, hits=%d, misses=%d, loads=%d, loadFailures=%d, averageLoadNanos=%d, evictions=%d}",
+                size(),getHitCount(),getMissCount(),getLoadCount(),getLoadFailureCount(),getAverageLoadNanos(),getEvictionCount());
+    }
+
+    private static final class Entry {
+        private final ConsortiumUser member;
+        private long accessNanos = System.nanoTime();
+        Entry(ConsortiumUser member){
+            this.member = member;
+        }
+    }
+
+    /**
+     * a least recently used map guarded by its own lock.
+     */
+    private final class Segment extends LinkedHashMap<String,Entry> {
+        private static final long serialVersionUID = -2871437463117328862L;
+        private final transient ReentrantLock lock = new ReentrantLock();
+        private final int maximumSize;
+        Segment(int maximumSize){
+            super(16,0.75f,true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if(size() > maximumSize){
+                evictionCount.incrementAndGet();
+                logger.debug("evict the member {} from the cache",eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    }
+}
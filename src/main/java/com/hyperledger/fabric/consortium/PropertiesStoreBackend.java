@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ConsortiumStoreBackend} keeping the values in a {@link Properties} file.
+ * in write-through mode every write re-reads and rewrites the whole file.
+ * in write-behind mode the file is loaded once, the memory is the source of truth
+ * and the dirty entries are flushed in batches by a background writer.
+ * <p>
+ * several processes may share the file: every read-modify-write runs under an exclusive lock of
+ * the {@code <file>.lock} sidecar file and only merges its own keys into the current content of the file,
+ * the file itself is always replaced by an atomic rename so readers never need the lock.
+ * every key carries a generation counter which is bumped on each write, {@link #compareAndSet(String, long, String)}
+ * uses it for optimistic updates of a key shared between processes.
+ * <p>
+ * in write-behind mode a key set locally keeps the generation it had when it was set. a flush writes the key only
+ * if the file still holds that generation, else another process wrote it in the meantime: the local value is
+ * dropped for the one of the file and the flush throws a {@link StoreConflictException}.
+ */
+public class PropertiesStoreBackend implements ConsortiumStoreBackend {
+    private static final Logger logger = LoggerFactory.getLogger(PropertiesStoreBackend.class);
+    /**
+     * the prefix of the generation entries kept next to the values.
+     */
+    static final String GENERATION_PREFIX = "__generation.";
+    /**
+     * {@link FileLock} is held per process, the threads of this JVM queue on these locks first.
+     */
+    private static final Map<String,ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final String file;
+    private final File lockFile;
+    /**
+     * the interval between two background flushes in write-behind mode,
+     * {@code 0} means every {@link #setValue(String, String)} is written through to the file.
+     */
+    private final long flushIntervalMillis;
+    /**
+     * the in-memory source of truth in write-behind mode, the generations included.
+     * the generation of a dirty key is the one it had when it was set, its base for the flush.
+     */
+    private Properties cache;
+    private final Set<String> dirtyNames = new HashSet<String>();
+    private long seenLastModified;
+    private long seenLength;
+    private ScheduledExecutorService flusher;
+    private Thread shutdownHook;
+    /**
+     * serializes the flushes of the background writer, {@link #close()} and the shutdown hook: a flush takes its
+     * snapshot of the pending entries and writes it under this lock, so an older snapshot never overwrites a newer one.
+     */
+    private final Object flushLock = new Object();
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedEntryCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    public PropertiesStoreBackend(File file){
+        this(file,0L);
+    }
+
+    /**
+     * create the backend in write-behind mode when {@code flushIntervalMillis} is positive.
+     * @param file the properties file
+     * @param flushIntervalMillis the flush interval, {@code 0} for write-through
+     */
+    public PropertiesStoreBackend(File file, long flushIntervalMillis){
+        this.file = file.getAbsolutePath();
+        this.lockFile = new File(this.file + ".lock");
+        this.flushIntervalMillis = flushIntervalMillis;
+        if(isWriteBehind()){
+            this.cache = new Properties();
+            refresh();
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable,"consortium-store-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly,flushIntervalMillis,flushIntervalMillis,TimeUnit.MILLISECONDS);
+            this.shutdownHook = new Thread(this::flushQuietly,"consortium-store-shutdown-flush");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+            logger.info("consortium store {} running in write-behind mode, flush interval {} ms",this.file,flushIntervalMillis);
+        }
+    }
+
+    /**
+     * @return {@code true} if the backend keeps its state in memory and flushes in the background.
+     */
+    public boolean isWriteBehind(){
+        return flushIntervalMillis > 0;
+    }
+
+    @Override
+    public void setValue(String name, String value){
+        if(isWriteBehind()){
+            synchronized (this){
+                cache.setProperty(name,value);
+                dirtyNames.add(name);
+            }
+            return;
+        }
+        try{
+            withFileLock(() -> {
+                Properties properties = loadProperties();
+                putWithNextGeneration(properties,name,value);
+                store(properties);
+                return null;
+            });
+        }catch (IOException ex){
+            logger.error("exception happened when process setValue,ex={}",ex);
+        }
+    }
+
+    @Override
+    public String getValue(String name){
+        if(isWriteBehind()){
+            synchronized (this){
+                return cache.getProperty(name);
+            }
+        }
+        Properties properties = loadProperties();
+        return properties.getProperty(name);
+    }
+
+    /**
+     * get the generation of a key, {@code 0} if it was never written.
+     * in write-behind mode this is the generation seen at the last flush or refresh, or when the key was set locally.
+     * @param name
+     * @return the generation
+     */
+    public long getGeneration(String name){
+        if(isWriteBehind()){
+            synchronized (this){
+                return generationOf(cache,name);
+            }
+        }
+        return generationOf(loadProperties(),name);
+    }
+
+    /**
+     * set the value only if no process has written the key since its generation was {@code expectedGeneration}.
+     * the update is written to the file at once, in write-behind mode too.
+     * @param name
+     * @param expectedGeneration the generation the caller based its value on, see {@link #getGeneration(String)}
+     * @param value
+     * @return {@code true} if the value was written; {@code false} if the key has moved on
+     * @throws IOException
+     */
+    public boolean compareAndSet(String name, long expectedGeneration, String value) throws IOException {
+        Properties updated = withFileLock(() -> {
+            Properties properties = loadProperties();
+            if(generationOf(properties,name) != expectedGeneration){
+                return null;
+            }
+            putWithNextGeneration(properties,name,value);
+            store(properties);
+            return properties;
+        });
+        if(null == updated){
+            conflictCount.incrementAndGet();
+            if(isWriteBehind()){
+                refresh();
+            }
+            return false;
+        }
+        if(isWriteBehind()){
+            synchronized (this){
+                dirtyNames.remove(name);
+                merge(updated);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * merge the pending entries into the current content of the file in one batch.
+     * the merged content is written to a temporary file in the same directory, synced and
+     * then atomically renamed over the store file, so a crash never leaves a half written store.
+     * the keys written by other processes in the meantime are picked up into the memory.
+     * the flushes are serialized, a flush waits for the running one.
+     * @throws StoreConflictException if some keys were written by another process since they were set locally,
+     * the other keys are flushed
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if(!isWriteBehind()){
+            return;
+        }
+        synchronized (flushLock){
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        Map<String,String> pending = new HashMap<String, String>();
+        Map<String,Long> baseGenerations = new HashMap<String, Long>();
+        Set<String> conflicts = new HashSet<String>();
+        synchronized (this){
+            for(String name : dirtyNames){
+                pending.put(name,cache.getProperty(name));
+                baseGenerations.put(name,generationOf(cache,name));
+            }
+            dirtyNames.clear();
+        }
+        if(pending.isEmpty()){
+            refresh();
+            return;
+        }
+        long start = System.nanoTime();
+        try{
+            Properties merged = withFileLock(() -> {
+                Properties properties = loadProperties();
+                for(Map.Entry<String,String> entry : pending.entrySet()){
+                    if(generationOf(properties,entry.getKey()) != baseGenerations.get(entry.getKey())){
+                        conflicts.add(entry.getKey());
+                        continue;
+                    }
+                    putWithNextGeneration(properties,entry.getKey(),entry.getValue());
+                }
+                if(conflicts.size() < pending.size()){
+                    store(properties);
+                }
+                return properties;
+            });
+            synchronized (this){
+                for(String name : pending.keySet()){
+                    if(conflicts.contains(name)){
+                        //a value set again during the flush is based on the dropped one, it is rejected at the next flush
+                        continue;
+                    }
+                    //the written generation is the new base of the key, set again during the flush or not
+                    cache.setProperty(GENERATION_PREFIX + name,merged.getProperty(GENERATION_PREFIX + name));
+                }
+                merge(merged);
+            }
+        }catch (IOException ex){
+            synchronized (this){
+                dirtyNames.addAll(pending.keySet());
+            }
+            throw ex;
+        }
+        long elapsed = System.nanoTime() - start;
+        flushCount.incrementAndGet();
+        flushedEntryCount.addAndGet(pending.size() - conflicts.size());
+        totalFlushNanos.addAndGet(elapsed);
+        lastFlushNanos.set(elapsed);
+        long max;
+        while ((max = maxFlushNanos.get()) < elapsed && !maxFlushNanos.compareAndSet(max,elapsed)){
+            //retry until the maximum is published
+        }
+        logger.debug("flushed {} entries into {} in {} us",pending.size() - conflicts.size(),file,TimeUnit.NANOSECONDS.toMicros(elapsed));
+        if(!conflicts.isEmpty()){
+            conflictCount.addAndGet(conflicts.size());
+            throw new StoreConflictException(file,conflicts);
+        }
+    }
+
+    /**
+     * reload the keys written by other processes if the file changed since it was last seen.
+     */
+    private void refresh(){
+        ReentrantLock processLock = processLock();
+        processLock.lock();
+        try{
+            refreshLocked();
+        }finally {
+            processLock.unlock();
+        }
+    }
+
+    private void refreshLocked(){
+        File target = new File(file);
+        long lastModified = target.lastModified();
+        long length = target.length();
+        synchronized (this){
+            if(lastModified == seenLastModified && length == seenLength){
+                return;
+            }
+        }
+        Properties properties = loadProperties();
+        synchronized (this){
+            merge(properties);
+            seenLastModified = lastModified;
+            seenLength = length;
+        }
+    }
+
+    /**
+     * take the content of the file into the memory, except the values changed locally and not flushed yet
+     * and their base generations.
+     * must be called holding the monitor of this backend.
+     */
+    private void merge(Properties properties){
+        for(String key : properties.stringPropertyNames()){
+            String name = key.startsWith(GENERATION_PREFIX) ? key.substring(GENERATION_PREFIX.length()) : key;
+            if(!dirtyNames.contains(name)){
+                cache.setProperty(key,properties.getProperty(key));
+            }
+        }
+    }
+
+    private static long generationOf(Properties properties, String name){
+        String generation = properties.getProperty(GENERATION_PREFIX + name);
+        return null == generation ? 0L : Long.parseLong(generation);
+    }
+
+    private static void putWithNextGeneration(Properties properties, String name, String value){
+        properties.setProperty(name,value);
+        properties.setProperty(GENERATION_PREFIX + name,Long.toString(generationOf(properties,name) + 1));
+    }
+
+    /**
+     * run {@code action} holding the lock of this process and the file lock shared with the other processes.
+     */
+    private <T> T withFileLock(LockedAction<T> action) throws IOException {
+        ReentrantLock processLock = processLock();
+        processLock.lock();
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()){
+            return action.run();
+        }finally {
+            processLock.unlock();
+        }
+    }
+
+    private ReentrantLock processLock(){
+        return PROCESS_LOCKS.computeIfAbsent(lockFile.getPath(),path -> new ReentrantLock());
+    }
+
+    /**
+     * write the properties to a synced temporary file and rename it over the store file.
+     */
+    private void store(Properties properties) throws IOException {
+        File target = new File(file);
+        File parent = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(target.getName(),".tmp",parent);
+        try{
+            try (FileOutputStream os = new FileOutputStream(temp)){
+                properties.store(os,"");
+                os.flush();
+                os.getFD().sync();
+            }
+            try{
+                Files.move(temp.toPath(),target.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            }catch (IOException ex){
+                logger.warn("atomic move is not supported for {}, fall back to replace,ex={}",file,ex);
+                Files.move(temp.toPath(),target.toPath(),StandardCopyOption.REPLACE_EXISTING);
+            }
+        }finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private void flushQuietly(){
+        try{
+            flush();
+        }catch (StoreConflictException ex){
+            logger.warn("{}",ex.getMessage());
+        }catch (IOException ex){
+            logger.error("exception happened when flush the store file:{},ex={}",file,ex);
+        }
+    }
+
+    /**
+     * stop the background writer and flush the pending entries, after the flush it may be running.
+     */
+    @Override
+    public void close(){
+        if(!isWriteBehind()){
+            return;
+        }
+        flusher.shutdown();
+        try{
+            flusher.awaitTermination(flushIntervalMillis,TimeUnit.MILLISECONDS);
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        try{
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }catch (IllegalStateException ex){
+            //the JVM is already shutting down, the hook runs anyway
+        }
+    }
+
+    /**
+     * load the configuration file
+     * @return
+     */
+    private Properties loadProperties() {
+        logger.debug("loading the properties file");
+        Properties properties = new Properties();
+        try(InputStream inputStream = new FileInputStream(file)){
+            properties.load(inputStream);
+        }catch (FileNotFoundException ex){
+            logger.debug("could not find the file:{},cause the exception:{}",file,ex);
+        }catch (IOException ex){
+            logger.error("Could not load keyvalue store from file:{},cause the exception:{}",file,ex);
+        }
+        return properties;
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushedEntryCount() {
+        return flushedEntryCount.get();
+    }
+
+    public long getTotalFlushNanos() {
+        return totalFlushNanos.get();
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos.get();
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos.get();
+    }
+
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    public synchronized int getPendingCount() {
+        return dirtyNames.size();
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+}
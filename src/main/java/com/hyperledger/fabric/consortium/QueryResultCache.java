@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.sdk.TxReadWriteSetInfo;
+import org.hyperledger.fabric.sdk.exception.InvalidProtocolBufferRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * cache of the query results by chaincode, function and arguments. each result keeps the keys of the read set
+ * the peer simulated it with, the result is evicted as soon as a valid transaction of a committed block writes
+ * one of them. a result whose read set holds range queries depends on the whole namespace.
+ * the least recently used results are evicted beyond the maximum size.
+ * <p>
+ * the cache subscribes to the {@link BlockEventPipeline} of its channel. the block events arrive after the peer
+ * committed the block, so a result can be stale for the time the event takes to arrive and to be decoded;
+ * a query simulated before an invalidation it raced with is not cached.
+ */
+public class QueryResultCache implements BlockSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(QueryResultCache.class);
+    private static final char SEPARATOR = '\u0000';
+
+    private final int maximumSize;
+    private final Set<String> excludedFunctions;
+    private final LinkedHashMap<String,Entry> entries;
+    /**
+     * the cache keys depending on a namespace key, or on the whole namespace for the namespace itself.
+     */
+    private final Map<String,Set<String>> dependents = new HashMap<String, Set<String>>();
+    private long invalidationEpoch;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of cached results
+     * @param excludedFunctions the functions whose results are never cached
+     */
+    public QueryResultCache(int maximumSize, Collection<String> excludedFunctions){
+        this.maximumSize = maximumSize;
+        this.excludedFunctions = new HashSet<String>(excludedFunctions);
+        this.entries = new LinkedHashMap<String,Entry>(16,0.75f,true);
+    }
+
+    public static String key(String chaincodeName, String fcn, String[] args){
+        StringBuilder builder = new StringBuilder(chaincodeName).append(SEPARATOR).append(fcn);
+        for(String arg : args){
+            builder.append(SEPARATOR).append(arg);
+        }
+        return builder.toString();
+    }
+
+    public boolean isCacheable(String fcn){
+        return !excludedFunctions.contains(fcn);
+    }
+
+    /**
+     * @param key the query key, see {@link #key}
+     * @return the cached payload, or {@code null}
+     */
+    public synchronized String get(String key){
+        Entry entry = entries.get(key);
+        if(null == entry){
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.payload;
+    }
+
+    /**
+     * @return the current invalidation epoch, to be passed to {@link #put} for a query starting now.
+     */
+    public synchronized long getInvalidationEpoch(){
+        return invalidationEpoch;
+    }
+
+    /**
+     * cache the result of a query.
+     * @param key the query key
+     * @param payload the query payload
+     * @param readSet the read set of the query simulation
+     * @param epoch the invalidation epoch when the query was sent, the result is dropped if a block invalidated entries since
+     */
+    public synchronized void put(String key, String payload, TxReadWriteSetInfo readSet, long epoch){
+        if(epoch != invalidationEpoch){
+            logger.debug("drop the result of {} raced by a block",key);
+            return;
+        }
+        Set<String> dependencies = new HashSet<String>();
+        try{
+            if(null != readSet){
+                for(TxReadWriteSetInfo.NsRwsetInfo nsRwsetInfo : readSet.getNsRwsetInfos()){
+                    String namespace = nsRwsetInfo.getNamespace();
+                    KvRwset.KVRWSet rwset = nsRwsetInfo.getRwset();
+                    if(rwset.getRangeQueriesInfoCount() > 0){
+                        dependencies.add(namespace);
+                    }
+                    for(KvRwset.KVRead read : rwset.getReadsList()){
+                        dependencies.add(namespace + SEPARATOR + read.getKey());
+                    }
+                }
+            }
+        }catch (InvalidProtocolBufferException | InvalidProtocolBufferRuntimeException ex){
+            logger.warn("could not decode the read set of {}, don't cache it:{}",key,ex);
+            return;
+        }
+        remove(key);
+        entries.put(key,new Entry(payload,dependencies));
+        for(String dependency : dependencies){
+            dependents.computeIfAbsent(dependency, d -> new HashSet<String>()).add(key);
+        }
+        Iterator<Map.Entry<String,Entry>> eldest = entries.entrySet().iterator();
+        while(entries.size() > maximumSize && eldest.hasNext()){
+            Map.Entry<String,Entry> evicted = eldest.next();
+            eldest.remove();
+            unlink(evicted.getKey(),evicted.getValue());
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * evict the results depending on the keys written by the valid transactions of a committed block.
+     * @param block the committed block
+     */
+    @Override
+    public void onBlock(DecodedBlock block){
+        List<String> written = new ArrayList<String>();
+        for(DecodedBlock.Transaction transaction : block.getTransactions()){
+            if(!transaction.isValid()){
+                continue;
+            }
+            for(DecodedBlock.Write write : transaction.getWrites()){
+                written.add(write.getNamespace());
+                written.add(write.getNamespace() + SEPARATOR + write.getKey());
+            }
+        }
+        if(!written.isEmpty()){
+            invalidate(written);
+        }
+    }
+
+    /**
+     * the missed blocks may have written anything.
+     */
+    @Override
+    public void onMissed(long count){
+        logger.warn("missed {} blocks, clear the query cache",count);
+        invalidateAll();
+    }
+
+    private synchronized void invalidate(List<String> dependencies){
+        invalidationEpoch++;
+        for(String dependency : dependencies){
+            Set<String> keys = dependents.remove(dependency);
+            if(null == keys){
+                continue;
+            }
+            for(String key : keys){
+                if(remove(key)){
+                    invalidationCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidateAll(){
+        invalidationEpoch++;
+        invalidationCount.addAndGet(entries.size());
+        entries.clear();
+        dependents.clear();
+    }
+
+    private boolean remove(String key){
+        Entry entry = entries.remove(key);
+        if(null == entry){
+            return false;
+        }
+        unlink(key,entry);
+        return true;
+    }
+
+    private void unlink(String key, Entry entry){
+        for(String dependency : entry.dependencies){
+            Set<String> keys = dependents.get(dependency);
+            if(null != keys){
+                keys.remove(key);
+                if(keys.isEmpty()){
+                    dependents.remove(dependency);
+                }
+            }
+        }
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0 ? 1.0d : (double) hits / requests;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryResultCache{size=%d, hitRatio=%.3f, hits=%d, misses=%d, evictions=%d, invalidations=%d}",
+                size(),getHitRatio(),getHitCount(),getMissCount(),getEvictionCount(),getInvalidationCount());
+    }
+
+    private static final class Entry {
+        private final String payload;
+        private final Set<String> dependencies;
+        Entry(String payload, Set<String> dependencies){
+            this.payload = payload;
+            this.dependencies = dependencies;
+        }
+    }
+}
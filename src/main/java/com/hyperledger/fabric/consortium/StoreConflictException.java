@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * thrown by the flush of a write-behind {@link PropertiesStoreBackend} when other processes wrote some of the keys
+ * since this process set them. those keys are not written, the memory takes the values of the file instead;
+ * the other keys of the flush are written.
+ */
+public class StoreConflictException extends IOException {
+    private final Set<String> names;
+
+    public StoreConflictException(String file, Set<String> names) {
+        super(String.format("the keys %s of %s were changed by another process, the local values are dropped", new TreeSet<String>(names), file));
+        this.names = Collections.unmodifiableSet(new TreeSet<String>(names));
+    }
+
+    /**
+     * @return the keys not written.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * local index of the committed transactions of a channel: transaction id to block number, index in the block and
+ * validation code, so that looking up a transaction doesn't cost a peer round trip.
+ * <p>
+ * the index is a log structured set of sorted runs. the new entries go into a memory table, written as an
+ * immutable run file of fixed size records sorted by key when the table is full and at each checkpoint of the
+ * block subscription feeding it. the runs are memory mapped and binary searched from the newest; a run is merged
+ * with the previous one once it reaches a quarter of its size, so there are few runs and little rewriting.
+ * <pre class="code">
+ *     run-0000000000000042.idx   magic(4) version(4) count(8) { key(32) blockNumber(8) index(4) validationCode(1) pad(3) }*
+ * </pre>
+ * the key is the 32 bytes of the hex transaction id the SDK generates, or the SHA-256 of any other id.
+ * a run is limited to 2 GB, some 44 million transactions: the runs are not merged beyond it.
+ * <p>
+ * a transaction id keeps the first location it was committed at, as {@code queryTransactionByID} of the peers does:
+ * the replays committed later as {@code DUPLICATE_TXID} are not indexed and an indexed location is never replaced.
+ */
+public class TransactionIndex implements BlockSubscriber, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionIndex.class);
+    private static final int MAGIC = 0x54584944;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 48;
+    private static final int MERGE_RATIO = 4;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+    private static final long MAX_RUN_BYTES = Integer.MAX_VALUE;
+
+    private final File directory;
+    private final int flushThreshold;
+    private volatile Map<Key, Value> active = new ConcurrentHashMap<>();
+    /**
+     * the memory table being written into a run, still searched until the run is published.
+     */
+    private volatile Map<Key, Value> flushing = Collections.emptyMap();
+    /**
+     * the runs, the newest first, replaced as a whole by the flushes and merges.
+     */
+    private volatile List<Run> runs;
+    private long nextRunId;
+    private volatile long indexedBlockNumber = -1L;
+    private volatile boolean closed;
+
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * open the index in a directory, created if needed.
+     * @param directory the directory of the run files
+     * @param flushThreshold the number of entries of the memory table written into a run without waiting for a checkpoint
+     * @throws IOException if the directory can't be created or read
+     */
+    public TransactionIndex(File directory, int flushThreshold) throws IOException {
+        this.directory = directory;
+        this.flushThreshold = flushThreshold;
+        Files.createDirectories(directory.toPath());
+        List<Run> opened = new ArrayList<>();
+        File[] files = directory.listFiles();
+        for (File file : null == files ? new File[0] : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                //a run interrupted by a crash
+                Files.deleteIfExists(file.toPath());
+            } else if (name.startsWith("run-") && name.endsWith(".idx")) {
+                long id = Long.parseLong(name.substring(4, name.length() - 4));
+                nextRunId = Math.max(nextRunId, id + 1);
+                try {
+                    opened.add(Run.open(id, file));
+                } catch (IOException ex) {
+                    logger.warn("skip the corrupted run {}:{}", file, ex);
+                }
+            }
+        }
+        opened.sort((a, b) -> Long.compare(b.id, a.id));
+        runs = Collections.unmodifiableList(opened);
+        logger.info("opened the transaction index {}, {} runs, {} transactions", directory, opened.size(), getRunEntryCount());
+    }
+
+    /**
+     * @param transactionId the transaction id
+     * @return the location of the transaction, or {@code null} if it is not indexed
+     */
+    public TransactionLocation get(String transactionId) {
+        lookupCount.incrementAndGet();
+        Value value = find(Key.of(transactionId));
+        if (null == value) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return new TransactionLocation(transactionId, value.blockNumber, value.transactionIndex, value.validationCode);
+    }
+
+    private Value find(Key key) {
+        Value value = active.get(key);
+        if (null == value) {
+            value = flushing.get(key);
+        }
+        if (null == value) {
+            for (Run run : runs) {
+                value = run.find(key);
+                if (null != value) {
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * index a transaction, unless its id is indexed already.
+     * @param location the location of the transaction
+     */
+    public void put(TransactionLocation location) {
+        Key key = Key.of(location.getTransactionId());
+        if (null == find(key)) {
+            active.merge(key, new Value(location.getBlockNumber(), location.getTransactionIndex(), location.getValidationCode()), Value::first);
+        }
+    }
+
+    @Override
+    public void onBlock(DecodedBlock block) throws IOException {
+        for (DecodedBlock.Transaction transaction : block.getTransactions()) {
+            if (transaction.getValidationCode() == TxValidationCode.DUPLICATE_TXID_VALUE) {
+                //a replay of an id committed before, the peers locate the id at its first commit
+                continue;
+            }
+            active.merge(Key.of(transaction.getTransactionId()),
+                    new Value(block.getBlockNumber(), transaction.getIndex(), transaction.getValidationCode()), Value::first);
+        }
+        indexedBlockNumber = block.getBlockNumber();
+        if (active.size() >= flushThreshold) {
+            flush();
+        }
+    }
+
+    /**
+     * make the blocks indexed so far durable before the subscription checkpoints them.
+     * @throws IOException if they could not be flushed, or the index is closed with transactions not flushed
+     */
+    @Override
+    public synchronized void onCheckpoint(long blockNumber) throws IOException {
+        if (closed && !active.isEmpty()) {
+            throw new IOException(String.format("the transaction index %s is closed, %d transactions up to block %d are not flushed",
+                    directory, active.size(), blockNumber));
+        }
+        flush();
+    }
+
+    @Override
+    public void onClosed() {
+        close();
+    }
+
+    /**
+     * write the memory table into a new run and merge the runs, nothing once the index is closed.
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        Map<Key, Value> table = active;
+        if (closed || table.isEmpty()) {
+            return;
+        }
+        flushing = table;
+        //an entry put into the table while it is written may be left out, it is indexed again on its next lookup
+        active = new ConcurrentHashMap<>();
+        List<Key> keys = new ArrayList<>(table.keySet());
+        Collections.sort(keys);
+        Run run;
+        try (RunWriter writer = new RunWriter()) {
+            for (Key key : keys) {
+                writer.add(key, table.get(key));
+            }
+            run = writer.finish();
+        }
+        List<Run> updated = new ArrayList<>(runs.size() + 1);
+        updated.add(run);
+        updated.addAll(runs);
+        runs = Collections.unmodifiableList(updated);
+        flushing = Collections.emptyMap();
+        logger.debug("flushed {} transactions into the run {}", run.count, run.file);
+        compact();
+    }
+
+    private void compact() throws IOException {
+        List<Run> current = runs;
+        while (current.size() >= 2 && (long) current.get(0).count * MERGE_RATIO >= current.get(1).count) {
+            Run newer = current.get(0);
+            Run older = current.get(1);
+            if (runBytes((long) newer.count + older.count) > MAX_RUN_BYTES) {
+                //the older runs are full, the newer ones are merged among themselves
+                break;
+            }
+            Run merged = merge(newer, older);
+            List<Run> updated = new ArrayList<>(current.size() - 1);
+            updated.add(merged);
+            updated.addAll(current.subList(2, current.size()));
+            runs = current = Collections.unmodifiableList(updated);
+            //the lookups still reading the old runs keep their mapping, it is released by the garbage collector
+            for (Run run : new Run[]{newer, older}) {
+                if (!run.file.delete()) {
+                    logger.warn("could not delete the merged run {}", run.file);
+                }
+            }
+            logger.debug("merged the runs {} and {} into {}, {} transactions", newer.file, older.file, merged.file, merged.count);
+        }
+    }
+
+    private Run merge(Run newer, Run older) throws IOException {
+        try (RunWriter writer = new RunWriter()) {
+            int i = 0;
+            int j = 0;
+            while (i < newer.count && j < older.count) {
+                int comparison = newer.compare(i, older, j);
+                if (comparison < 0) {
+                    writer.copy(newer, i++);
+                } else if (comparison > 0) {
+                    writer.copy(older, j++);
+                } else {
+                    //the first location of an id is kept
+                    if (newer.isBefore(i, older, j)) {
+                        writer.copy(newer, i);
+                    } else {
+                        writer.copy(older, j);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            while (i < newer.count) {
+                writer.copy(newer, i++);
+            }
+            while (j < older.count) {
+                writer.copy(older, j++);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * stop indexing, the entries not flushed yet are written into a last run.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException ex) {
+            logger.error("could not flush the transaction index {}:{}", directory, ex);
+        }
+        closed = true;
+        runs = Collections.emptyList();
+    }
+
+    /**
+     * @return the highest block indexed, durable or not, {@code -1} before the first block.
+     */
+    public long getIndexedBlockNumber() {
+        return indexedBlockNumber;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return the number of entries of the runs, duplicates included.
+     */
+    public long getRunEntryCount() {
+        long count = 0;
+        for (Run run : runs) {
+            count += run.count;
+        }
+        return count;
+    }
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionIndex{directory=" + directory + ", runs=" + getRunCount() + ", entries=" + getRunEntryCount()
+                + ", lookups=" + getLookupCount() + ", hits=" + getHitCount() + "}";
+    }
+
+    private static long runBytes(long count) {
+        return HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    /**
+     * writes a run into a temporary file, renamed once complete.
+     */
+    private final class RunWriter implements Closeable {
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * WRITE_BUFFER_RECORDS);
+        private long count;
+        private boolean finished;
+
+        RunWriter() throws IOException {
+            temp = Files.createTempFile(directory.toPath(), "run-", ".tmp");
+            channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0L);
+        }
+
+        void add(Key key, Value value) throws IOException {
+            ensureRemaining();
+            buffer.putLong(key.k0).putLong(key.k1).putLong(key.k2).putLong(key.k3)
+                    .putLong(value.blockNumber).putInt(value.transactionIndex).put(value.validationCode)
+                    .put((byte) 0).put((byte) 0).put((byte) 0);
+            count++;
+        }
+
+        void copy(Run run, int index) throws IOException {
+            ensureRemaining();
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            for (int i = 0; i < RECORD_SIZE; i += 8) {
+                buffer.putLong(run.buffer.getLong(offset + i));
+            }
+            count++;
+        }
+
+        private void ensureRemaining() throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        Run finish() throws IOException {
+            if (runBytes(count) > MAX_RUN_BYTES) {
+                throw new IOException(String.format("a run of %d transactions exceeds %d bytes", count, MAX_RUN_BYTES));
+            }
+            drain();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).flip();
+            channel.write(header, 0L);
+            channel.force(true);
+            channel.close();
+            long id = nextRunId++;
+            File file = new File(directory, String.format("run-%016d.idx", id));
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return Run.open(id, file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * an immutable run file, memory mapped.
+     */
+    private static final class Run {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final int count;
+
+        private Run(long id, File file, MappedByteBuffer buffer, int count) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        static Run open(long id, File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_SIZE || size > MAX_RUN_BYTES) {
+                    throw new IOException("invalid run size " + size);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+                long count = buffer.getLong(8);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || runBytes(count) != size) {
+                    throw new IOException("invalid run header");
+                }
+                return new Run(id, file, buffer, (int) count);
+            }
+        }
+
+        Value find(Key key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int offset = HEADER_SIZE + middle * RECORD_SIZE;
+                int comparison = compare(offset, key.k0, key.k1, key.k2, key.k3);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return new Value(buffer.getLong(offset + 32), buffer.getInt(offset + 40), buffer.get(offset + 44));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return {@code true} if the location of a record was committed before the one of a record of another run.
+         */
+        boolean isBefore(int index, Run other, int otherIndex) {
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            int otherOffset = HEADER_SIZE + otherIndex * RECORD_SIZE;
+            int comparison = Long.compare(buffer.getLong(offset + 32), other.buffer.getLong(otherOffset + 32));
+            return comparison < 0 || comparison == 0 && buffer.getInt(offset + 40) <= other.buffer.getInt(otherOffset + 40);
+        }
+
+        int compare(int index, Run other, int otherIndex) {
+            int otherOffset = HEADER_SIZE + otherIndex * RECORD_SIZE;
+            return compare(HEADER_SIZE + index * RECORD_SIZE, other.buffer.getLong(otherOffset), other.buffer.getLong(otherOffset + 8),
+                    other.buffer.getLong(otherOffset + 16), other.buffer.getLong(otherOffset + 24));
+        }
+
+        private int compare(int offset, long k0, long k1, long k2, long k3) {
+            int comparison = Long.compareUnsigned(buffer.getLong(offset), k0);
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(buffer.getLong(offset + 8), k1);
+            }
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(buffer.getLong(offset + 16), k2);
+            }
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(buffer.getLong(offset + 24), k3);
+            }
+            return comparison;
+        }
+    }
+
+    /**
+     * the 32 bytes key of a transaction id, compared as unsigned bytes.
+     */
+    private static final class Key implements Comparable<Key> {
+        private final long k0;
+        private final long k1;
+        private final long k2;
+        private final long k3;
+
+        private Key(long k0, long k1, long k2, long k3) {
+            this.k0 = k0;
+            this.k1 = k1;
+            this.k2 = k2;
+            this.k3 = k3;
+        }
+
+        static Key of(String transactionId) {
+            byte[] bytes = decodeHex(transactionId);
+            if (null == bytes) {
+                try {
+                    bytes = MessageDigest.getInstance("SHA-256").digest(transactionId.getBytes(UTF_8));
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Key(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+
+        /**
+         * @return the 32 bytes of a 64 digits hex id, {@code null} for any other id.
+         */
+        private static byte[] decodeHex(String id) {
+            if (id.length() != 64) {
+                return null;
+            }
+            byte[] bytes = new byte[32];
+            for (int i = 0; i < 32; i++) {
+                int high = Character.digit(id.charAt(2 * i), 16);
+                int low = Character.digit(id.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                bytes[i] = (byte) ((high << 4) | low);
+            }
+            return bytes;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int comparison = Long.compareUnsigned(k0, other.k0);
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(k1, other.k1);
+            }
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(k2, other.k2);
+            }
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(k3, other.k3);
+            }
+            return comparison;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return k0 == key.k0 && k1 == key.k1 && k2 == key.k2 && k3 == key.k3;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(k0 ^ k3);
+        }
+    }
+
+    private static final class Value {
+        private final long blockNumber;
+        private final int transactionIndex;
+        private final byte validationCode;
+
+        Value(long blockNumber, int transactionIndex, byte validationCode) {
+            this.blockNumber = blockNumber;
+            this.transactionIndex = transactionIndex;
+            this.validationCode = validationCode;
+        }
+
+        /**
+         * @return the location committed first.
+         */
+        static Value first(Value a, Value b) {
+            int comparison = Long.compare(a.blockNumber, b.blockNumber);
+            return comparison < 0 || comparison == 0 && a.transactionIndex <= b.transactionIndex ? a : b;
+        }
+    }
+}
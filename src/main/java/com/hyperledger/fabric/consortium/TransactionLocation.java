@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+
+/**
+ * where a transaction was committed: its block, its position in the block and its validation code.
+ */
+public final class TransactionLocation {
+    private final String transactionId;
+    private final long blockNumber;
+    private final int transactionIndex;
+    private final byte validationCode;
+
+    public TransactionLocation(String transactionId, long blockNumber, int transactionIndex, byte validationCode) {
+        this.transactionId = transactionId;
+        this.blockNumber = blockNumber;
+        this.transactionIndex = transactionIndex;
+        this.validationCode = validationCode;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * @return the index of the transaction envelope in the block.
+     */
+    public int getTransactionIndex() {
+        return transactionIndex;
+    }
+
+    public byte getValidationCode() {
+        return validationCode;
+    }
+
+    public boolean isValid() {
+        return validationCode == TxValidationCode.VALID_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionLocation{transactionId=" + transactionId + ", blockNumber=" + blockNumber
+                + ", transactionIndex=" + transactionIndex + ", validationCode=" + validationCode + "}";
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * pipelined submission of transactions: the endorsement of a transaction runs on the endorse threads while
+ * the transactions endorsed before it are broadcast on the broadcast threads and wait for their commit.
+ * at most {@code maxInFlight} transactions are between submission and commit, {@link #submit} blocks the
+ * callers while the window is full.
+ * <pre class="code">
+ *     TransactionSubmitter&lt;?&gt; submitter = manager.newTransactionSubmitter(256, 16, 4);
+ *     submitter.submit("invoke", new String[]{"a", "b", "1"}).thenAccept(result -&gt; ...);
+ * </pre>
+ * @param <E> the endorsement handed from the endorse stage to the broadcast stage
+ */
+public class TransactionSubmitter<E> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionSubmitter.class);
+    /**
+     * the time {@link #close()} waits for the submitted transactions to be endorsed and broadcast.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 30L;
+
+    /**
+     * the stages of a transaction.
+     * @param <E> the endorsement
+     */
+    public interface Stages<E> {
+        /**
+         * collect the endorsements of a proposal, called on an endorse thread.
+         */
+        E endorse(String fcn, String[] args) throws Exception;
+
+        /**
+         * send the endorsed transaction to the orderers, called on a broadcast thread.
+         * @return the future completed by the commit of the transaction
+         */
+        CompletableFuture<InvokeResult> broadcast(E endorsement) throws Exception;
+    }
+
+    private final Stages<E> stages;
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final ThreadPoolExecutor endorseExecutor;
+    private final ThreadPoolExecutor broadcastExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param name the name of the threads
+     * @param stages the endorse and broadcast stages
+     * @param maxInFlight the maximum number of transactions between submission and commit
+     * @param endorseThreads the number of endorsements running at once
+     * @param broadcastThreads the number of broadcasts running at once
+     */
+    public TransactionSubmitter(String name, Stages<E> stages, int maxInFlight, int endorseThreads, int broadcastThreads) {
+        if (maxInFlight < 1 || endorseThreads < 1 || broadcastThreads < 1) {
+            throw new IllegalArgumentException(String.format("invalid window %d or threads %d/%d", maxInFlight, endorseThreads, broadcastThreads));
+        }
+        this.stages = stages;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight, true);
+        this.endorseExecutor = newExecutor(name + "-endorse", endorseThreads);
+        this.broadcastExecutor = newExecutor(name + "-broadcast", broadcastThreads);
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads) {
+        //the queues are unbounded, the window bounds them
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * submit a transaction, waiting for a free slot of the window.
+     * @param fcn
+     * @param args
+     * @return the future of the committed transaction
+     * @throws InterruptedException if interrupted while the window is full
+     */
+    public CompletableFuture<InvokeResult> submit(String fcn, String[] args) throws InterruptedException {
+        window.acquire();
+        return start(fcn, args);
+    }
+
+    /**
+     * submit a transaction, waiting at most the timeout for a free slot of the window.
+     * @param fcn
+     * @param args
+     * @param timeout
+     * @param unit
+     * @return the future of the committed transaction, completed exceptionally with a
+     * {@link RejectedExecutionException} if the window stayed full
+     * @throws InterruptedException if interrupted while the window is full
+     */
+    public CompletableFuture<InvokeResult> trySubmit(String fcn, String[] args, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!window.tryAcquire(timeout, unit)) {
+            CompletableFuture<InvokeResult> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException(String.format("%d transactions in flight", maxInFlight)));
+            return rejected;
+        }
+        return start(fcn, args);
+    }
+
+    private CompletableFuture<InvokeResult> start(String fcn, String[] args) {
+        inFlight.incrementAndGet();
+        submittedCount.incrementAndGet();
+        CompletableFuture<InvokeResult> result = new CompletableFuture<>();
+        result.whenComplete((r, ex) -> {
+            inFlight.decrementAndGet();
+            window.release();
+            if (null == ex) {
+                committedCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+            }
+        });
+        try {
+            endorseExecutor.execute(new Task(() -> endorse(fcn, args, result), result));
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    private void endorse(String fcn, String[] args, CompletableFuture<InvokeResult> result) {
+        E endorsement;
+        try {
+            endorsement = stages.endorse(fcn, args);
+        } catch (Exception ex) {
+            logger.error("endorsement of {} failed:{}", fcn, ex);
+            result.completeExceptionally(ex);
+            return;
+        }
+        try {
+            broadcastExecutor.execute(new Task(() -> broadcast(endorsement, result), result));
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private void broadcast(E endorsement, CompletableFuture<InvokeResult> result) {
+        try {
+            stages.broadcast(endorsement).whenComplete((r, ex) -> {
+                if (null == ex) {
+                    result.complete(r);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (Exception ex) {
+            logger.error("broadcast failed:{}", ex);
+            result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * @return the number of transactions between submission and commit.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the number of transactions waiting for an endorse thread.
+     */
+    public int getEndorseQueueDepth() {
+        return endorseExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of endorsed transactions waiting for a broadcast thread.
+     */
+    public int getBroadcastQueueDepth() {
+        return broadcastExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of callers blocked on the full window.
+     */
+    public int getBlockedSubmitters() {
+        return window.getQueueLength();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * stop accepting transactions, wait up to {@value #CLOSE_TIMEOUT_SECONDS} s for the submitted transactions to be
+     * endorsed and broadcast, see {@link #close(long, TimeUnit)}.
+     */
+    @Override
+    public void close() {
+        close(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * stop accepting transactions, wait for the submitted transactions to be endorsed and broadcast. past the
+     * timeout the running stages are interrupted and the transactions not started fail with a
+     * {@link RejectedExecutionException}.
+     * @param timeout
+     * @param unit
+     * @return {@code true} if all the transactions were endorsed and broadcast in time
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = false;
+        endorseExecutor.shutdown();
+        try {
+            //the endorse stage feeds the broadcast stage, it has to be drained first
+            if (endorseExecutor.awaitTermination(timeout, unit)) {
+                broadcastExecutor.shutdown();
+                drained = broadcastExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!drained) {
+                int abandoned = abandon(endorseExecutor.shutdownNow());
+                broadcastExecutor.shutdown();
+                abandoned += abandon(broadcastExecutor.shutdownNow());
+                logger.warn("the transactions were not broadcast in time, {} abandoned, {} in flight", abandoned, getInFlight());
+            }
+        }
+        return drained;
+    }
+
+    private static int abandon(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            ((Task) task).result.completeExceptionally(new RejectedExecutionException("the transaction submitter is closed"));
+        }
+        return tasks.size();
+    }
+
+    /**
+     * a stage of a transaction, failed if the submitter is closed before it runs.
+     */
+    private static final class Task implements Runnable {
+        private final Runnable stage;
+        private final CompletableFuture<InvokeResult> result;
+
+        Task(Runnable stage, CompletableFuture<InvokeResult> result) {
+            this.stage = stage;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            stage.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TransactionSubmitter{inFlight=%d/%d, endorseQueue=%d, broadcastQueue=%d, blocked=%d, submitted=%d, committed=%d, failed=%d}",
+                getInFlight(), maxInFlight, getEndorseQueueDepth(), getBroadcastQueueDepth(), getBlockedSubmitters(),
+                getSubmittedCount(), getCommittedCount(), getFailedCount());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hyperledger.fabric.consortium.ConsortiumChaincodeManager;
+import com.hyperledger.fabric.consortium.ConsortiumManager;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * bulk queries: the request body holds one JSON array of arguments per line, the response streams one JSON
+ * result per line as the queries complete, in completion order.
+ * <pre class="code">
+ *     curl -XPOST --data-binary @keys.ndjson "http://localhost:8090/query/bulk?fcn=query&amp;concurrency=32"
+ *
+ *     ["a"]                                                  {"index":1,"args":["b"],"code":"success","data":"210"}
+ *     ["b"]                                                  {"index":0,"args":["a"],"code":"success","data":"90"}
+ *     [c]                                                    {"index":2,"code":"error","data":"invalid arguments: ..."}
+ * </pre>
+ * the index is the position of the line among the non-blank lines of the request. a line that is not a JSON array of
+ * strings gets an error record without args and the batch goes on; a request that can't be read to the end stops the
+ * batch with a last error record without index.
+ * both sides are streamed, so the memory used doesn't depend on the size of the batch. a batch longer than
+ * the async request timeout of the container needs {@code spring.mvc.async.request-timeout} raised.
+ */
+@RestController
+public class BulkQueryController {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkQueryController.class);
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    /**
+     * absent when the starter is disabled by {@code hyperledger.fabric.server.enabled=false}.
+     */
+    @Autowired(required = false)
+    private ConsortiumManager consortiumManager;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @RequestMapping(value = "/query/bulk", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> query(HttpServletRequest request,
+                                                       @RequestParam(value = "fcn", defaultValue = "query") String fcn,
+                                                       @RequestParam(value = "channel", required = false) String channelName,
+                                                       @RequestParam(value = "chaincode", required = false) String chaincodeName,
+                                                       @RequestParam(value = "concurrency", required = false) Integer concurrency) {
+        if (null == consortiumManager) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        int maxConcurrency = null == concurrency ? consortiumManager.getGateway().getConfig().getBulkQueryConcurrency() : concurrency;
+        ConsortiumChaincodeManager ccManager;
+        try {
+            ccManager = null == channelName ? consortiumManager.getManager() : consortiumManager.getGateway().getChannel(channelName);
+        } catch (InvalidArgumentException | TransactionException e) {
+            logger.error("could not open the channel {}: {}",channelName,e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        String chaincode = null == chaincodeName ? consortiumManager.getManager().getChaincodeName() : chaincodeName;
+        StreamingResponseBody body = outputStream -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), UTF_8));
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            ArgumentLines lines = new ArgumentLines(reader, generator);
+            try {
+                long count = ccManager.queryBatch(chaincode, fcn, lines, maxConcurrency,
+                        (index, args, result) -> writeResult(generator, lines.lineIndex(index), args, result.isSuccess() ? "success" : "error", result.getData()));
+                logger.info("bulk query {} of {} answered {} queries, {} invalid lines",fcn,chaincode,count,lines.invalidCount());
+            } catch (UncheckedIOException e) {
+                //the request could not be read past this point, end the stream with an error record
+                logger.error("could not read the bulk query request: {}",e);
+                writeResult(generator, -1, null, "error", "could not read the request: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("the bulk query was interrupted", e);
+            } finally {
+                generator.close();
+            }
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * write one result line, called by the query threads and by the thread reading the request.
+     * @param index the position of the line in the request, or -1 when the record doesn't belong to a line
+     * @param args the arguments of the line, or null when they could not be parsed
+     */
+    private static void writeResult(JsonGenerator generator, long index, String[] args, String code, String data) throws IOException {
+        synchronized (generator) {
+            generator.writeStartObject();
+            if (index >= 0) {
+                generator.writeNumberField("index", index);
+            }
+            if (null != args) {
+                generator.writeArrayFieldStart("args");
+                for (String arg : args) {
+                    generator.writeString(arg);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeStringField("code", code);
+            generator.writeStringField("data", data);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            generator.flush();
+        }
+    }
+
+    /**
+     * the arguments of the queries, one JSON array per line, read as the queries are sent.
+     * a line that is not an array of strings is answered by an error record and skipped, so the indexes of the batch
+     * count the valid lines only; {@link #lineIndex(long)} maps them back to the positions of the lines.
+     */
+    private final class ArgumentLines implements Iterator<String[]> {
+        private final BufferedReader reader;
+        private final JsonGenerator generator;
+        /**
+         * the positions of the invalid lines, ascending, read by the query threads.
+         */
+        private final List<Long> invalid = new CopyOnWriteArrayList<>();
+        private String[] args;
+        private long lines;
+
+        ArgumentLines(BufferedReader reader, JsonGenerator generator) {
+            this.reader = reader;
+            this.generator = generator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (null == args) {
+                    String next = reader.readLine();
+                    if (null == next) {
+                        return false;
+                    }
+                    if (next.trim().isEmpty()) {
+                        continue;
+                    }
+                    long index = lines++;
+                    String error;
+                    try {
+                        args = objectMapper.readValue(next, String[].class);
+                        error = null == args ? "invalid arguments: null" : null;
+                    } catch (JsonProcessingException e) {
+                        error = "invalid arguments: " + e.getOriginalMessage();
+                    }
+                    if (null != error) {
+                        invalid.add(index);
+                        writeResult(generator, index, null, "error", error);
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] current = args;
+            args = null;
+            return current;
+        }
+
+        /**
+         * @param batchIndex the index of a query in the batch
+         * @return the position of its line in the request
+         */
+        long lineIndex(long batchIndex) {
+            long index = batchIndex;
+            for (long skipped : invalid) {
+                if (skipped > index) {
+                    break;
+                }
+                index++;
+            }
+            return index;
+        }
+
+        int invalidCount() {
+            return invalid.size();
+        }
+    }
+}
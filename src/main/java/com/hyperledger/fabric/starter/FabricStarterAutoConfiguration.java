@@ -3,10 +3,13 @@
  */
 package com.hyperledger.fabric.starter;
 
+import com.hyperledger.fabric.consortium.ConsortiumManager;
 import com.hyperledger.fabric.properties.FabricServerProperties;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
@@ -19,4 +22,16 @@ import org.springframework.core.env.Environment;
 public class FabricStarterAutoConfiguration {
     @Autowired
     private Environment environment;
+
+    /**
+     * the single consortium manager of the application, built once at startup and shared by all the
+     * request threads, its channel is shut down with the application context.
+     * @return consortium manager
+     * @throws Exception if the channel could not be built
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    public ConsortiumManager consortiumManager() throws Exception {
+        return new ConsortiumManager();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ConsulStoreBackend} against an in-process stand-in of the consul KV HTTP API.
+ */
+public class ConsulStoreBackendTest {
+    private static final String PREFIX = "fabric/consortium/";
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private ConsulStandIn consul;
+    private ConsulStoreBackend backend;
+
+    @Before
+    public void setUp() throws IOException {
+        consul = new ConsulStandIn();
+    }
+
+    @After
+    public void tearDown() {
+        if (null != backend) {
+            backend.close();
+        }
+        consul.stop();
+    }
+
+    @Test
+    public void readsThroughTheCache() throws Exception {
+        consul.put(PREFIX + "user1", "enrolled");
+        backend = start();
+
+        assertEquals("enrolled", backend.getValue("user1"));
+        assertEquals("enrolled", backend.getValue("user1"));
+        assertNull(backend.getValue("user2"));
+        assertNull(backend.getValue("user2"));
+
+        assertEquals(1, consul.reads(PREFIX + "user1"));
+        assertEquals(1, consul.reads(PREFIX + "user2"));
+        assertEquals(2, backend.getMissCount());
+        assertEquals(2, backend.getHitCount());
+    }
+
+    @Test
+    public void writesThroughToConsul() throws Exception {
+        backend = start();
+
+        backend.setValue("user1", "enrolled");
+
+        assertEquals("enrolled", consul.get(PREFIX + "user1"));
+        assertEquals("enrolled", backend.getValue("user1"));
+        assertEquals(0, consul.reads(PREFIX + "user1"));
+    }
+
+    @Test
+    public void refreshesTheKeysChangedByAnotherNode() throws Exception {
+        consul.put(PREFIX + "user1", "enrolled");
+        backend = start();
+        assertEquals("enrolled", backend.getValue("user1"));
+
+        long index = consul.put(PREFIX + "user1", "revoked");
+        awaitWatch(index);
+
+        assertEquals("revoked", backend.getValue("user1"));
+        assertEquals(1, consul.reads(PREFIX + "user1"));
+        assertTrue(backend.getInvalidationCount() > 0);
+    }
+
+    @Test
+    public void dropsTheKeysDeletedByAnotherNode() throws Exception {
+        consul.put(PREFIX + "user1", "enrolled");
+        backend = start();
+        assertEquals("enrolled", backend.getValue("user1"));
+
+        long index = consul.delete(PREFIX + "user1");
+        awaitWatch(index);
+
+        assertNull(backend.getValue("user1"));
+    }
+
+    @Test
+    public void doesNotCacheAMissRacedByTheWatch() throws Exception {
+        consul.put(PREFIX + "user1", "enrolled");
+        backend = start();
+        ConsulStandIn.HeldRead held = consul.holdNextRead(PREFIX + "user1");
+        CompletableFuture<String> racingRead = CompletableFuture.supplyAsync(() -> backend.getValue("user1"));
+        assertTrue(held.captured.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        long index = consul.put(PREFIX + "user1", "revoked");
+        awaitWatch(index);
+        held.release.countDown();
+
+        assertEquals("enrolled", racingRead.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("revoked", backend.getValue("user1"));
+        assertEquals(1, backend.getStaleReadCount());
+    }
+
+    private ConsulStoreBackend start() throws InterruptedException {
+        ConsulStoreBackend started = new ConsulStoreBackend(new ConsulClient("localhost", consul.port()), PREFIX, 1L);
+        long index = consul.index();
+        await(() -> started.getWatchIndex() >= index);
+        return started;
+    }
+
+    private void awaitWatch(long index) throws InterruptedException {
+        await(() -> backend.getWatchIndex() >= index);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * the {@code /v1/kv} endpoints the backend uses: single key reads, recursive blocking queries and writes.
+     */
+    private static final class ConsulStandIn {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Map<String, String> values = new TreeMap<>();
+        private final Map<String, Long> modifyIndexes = new TreeMap<>();
+        private final Map<String, AtomicInteger> reads = new TreeMap<>();
+        private final Map<String, HeldRead> heldReads = new TreeMap<>();
+        private long index = 1L;
+
+        ConsulStandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/v1/kv/", this::handle);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        synchronized long index() {
+            return index;
+        }
+
+        synchronized long put(String key, String value) {
+            values.put(key, value);
+            modifyIndexes.put(key, ++index);
+            notifyAll();
+            return index;
+        }
+
+        synchronized long delete(String key) {
+            values.remove(key);
+            modifyIndexes.remove(key);
+            index++;
+            notifyAll();
+            return index;
+        }
+
+        synchronized String get(String key) {
+            return values.get(key);
+        }
+
+        synchronized int reads(String key) {
+            AtomicInteger count = reads.get(key);
+            return null == count ? 0 : count.get();
+        }
+
+        synchronized HeldRead holdNextRead(String key) {
+            HeldRead held = new HeldRead();
+            heldReads.put(key, held);
+            return held;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                String key = exchange.getRequestURI().getPath().substring("/v1/kv/".length());
+                String query = exchange.getRequestURI().getQuery();
+                Map<String, String> params = new TreeMap<>();
+                if (null != query) {
+                    for (String param : query.split("&")) {
+                        int equals = param.indexOf('=');
+                        params.put(equals < 0 ? param : param.substring(0, equals), equals < 0 ? "" : param.substring(equals + 1));
+                    }
+                }
+                if ("PUT".equals(exchange.getRequestMethod())) {
+                    put(key, new String(readFully(exchange.getRequestBody()), UTF_8));
+                    respond(exchange, 200, index(), "true");
+                } else if (params.containsKey("recurse")) {
+                    watch(exchange, key, params);
+                } else {
+                    read(exchange, key);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void read(HttpExchange exchange, String key) throws IOException, InterruptedException {
+            String body;
+            long currentIndex;
+            HeldRead held;
+            synchronized (this) {
+                reads.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+                body = values.containsKey(key) ? "[" + entry(key) + "]" : null;
+                currentIndex = index;
+                held = heldReads.remove(key);
+            }
+            if (null != held) {
+                //answer with the value as it was when the read arrived
+                held.captured.countDown();
+                held.release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            respond(exchange, null == body ? 404 : 200, currentIndex, body);
+        }
+
+        private void watch(HttpExchange exchange, String prefix, Map<String, String> params) throws IOException, InterruptedException {
+            long knownIndex = params.containsKey("index") ? Long.parseLong(params.get("index")) : 0L;
+            String waitTime = params.getOrDefault("wait", "0s");
+            long waitMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(waitTime.substring(0, waitTime.length() - 1)));
+            StringBuilder body = new StringBuilder("[");
+            long currentIndex;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + waitMillis;
+                while (index <= knownIndex && System.currentTimeMillis() < deadline) {
+                    wait(Math.max(1L, deadline - System.currentTimeMillis()));
+                }
+                for (String key : values.keySet()) {
+                    if (key.startsWith(prefix)) {
+                        body.append(body.length() > 1 ? "," : "").append(entry(key));
+                    }
+                }
+                currentIndex = index;
+            }
+            respond(exchange, body.length() > 1 ? 200 : 404, currentIndex, body.length() > 1 ? body.append(']').toString() : null);
+        }
+
+        private String entry(String key) {
+            long modifyIndex = modifyIndexes.get(key);
+            return "{\"LockIndex\":0,\"Key\":\"" + key + "\",\"Flags\":0,\"Value\":\""
+                    + Base64.getEncoder().encodeToString(values.get(key).getBytes(UTF_8))
+                    + "\",\"CreateIndex\":" + modifyIndex + ",\"ModifyIndex\":" + modifyIndex + "}";
+        }
+
+        private static void respond(HttpExchange exchange, int status, long index, String body) throws IOException {
+            byte[] bytes = null == body ? new byte[0] : body.getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("X-Consul-Index", Long.toString(index));
+            exchange.getResponseHeaders().add("X-Consul-Knownleader", "true");
+            exchange.getResponseHeaders().add("X-Consul-Lastcontact", "0");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            }
+        }
+
+        private static byte[] readFully(InputStream is) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = is.read(chunk)) > 0) {
+                buffer.write(chunk, 0, read);
+            }
+            return buffer.toByteArray();
+        }
+
+        static final class HeldRead {
+            final CountDownLatch captured = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+        }
+    }
+}
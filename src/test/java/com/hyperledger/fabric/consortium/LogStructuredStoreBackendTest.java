@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link LogStructuredStoreBackend}: the recovery scan after a crash in the middle of an append, and the compaction
+ * running along the writes.
+ */
+public class LogStructuredStoreBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversTheRecordsBeforeATruncatedTail() throws Exception {
+        File file = new File(folder.getRoot(), "store.log");
+        long tail = writeThenCrash(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            //the crash cut the last record in the middle of its value
+            raf.setLength(tail + 12);
+        }
+
+        assertRecovered(file, tail);
+    }
+
+    @Test
+    public void recoversTheRecordsBeforeACorruptedTail() throws Exception {
+        File file = new File(folder.getRoot(), "store.log");
+        long tail = writeThenCrash(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            //the crash left the last value half written, its crc doesn't match
+            raf.seek(tail + 20);
+            raf.write(new byte[]{0x55, 0x55, 0x55, 0x55});
+        }
+
+        assertRecovered(file, tail);
+    }
+
+    @Test
+    public void keepsTheWritesMadeDuringACompaction() throws Exception {
+        File file = new File(folder.getRoot(), "store.log");
+        LogStructuredStoreBackend backend = new LogStructuredStoreBackend(file, 1.0d, Long.MAX_VALUE);
+        for (int round = 0; round < 20; round++) {
+            for (int k = 0; k < 500; k++) {
+                backend.setValue("user" + k, "round-" + round);
+            }
+        }
+        AtomicBoolean compacting = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Integer> writer = CompletableFuture.supplyAsync(() -> {
+            int count = 0;
+            started.countDown();
+            while (compacting.get() || count < 100) {
+                backend.setValue("writer" + (count % 1000), "write-" + count);
+                count++;
+            }
+            return count;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        backend.compact();
+        compacting.set(false);
+        int written = writer.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1L, backend.getCompactionCount());
+        assertTrue(backend.getWrittenBytes() < 20 * 500 * 20);
+        backend.close();
+
+        LogStructuredStoreBackend reopened = new LogStructuredStoreBackend(file);
+        try {
+            for (int k = 0; k < 500; k++) {
+                assertEquals("round-19", reopened.getValue("user" + k));
+            }
+            for (int count = Math.max(0, written - 1000); count < written; count++) {
+                assertEquals("write-" + count, reopened.getValue("writer" + (count % 1000)));
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * write some keys, then a last record, and drop the backend without closing it.
+     * @return the position of the last record
+     */
+    private static long writeThenCrash(File file) throws IOException {
+        LogStructuredStoreBackend backend = new LogStructuredStoreBackend(file);
+        backend.setValue("user1", "enrolled");
+        backend.setValue("user2", "enrolled");
+        backend.setValue("user1", "revoked");
+        long tail = backend.getWrittenBytes();
+        backend.setValue("user3", "a value long enough to be cut in the middle");
+        backend.flush();
+        backend.close();
+        return tail;
+    }
+
+    private static void assertRecovered(File file, long tail) throws IOException {
+        LogStructuredStoreBackend recovered = new LogStructuredStoreBackend(file);
+        try {
+            assertEquals("revoked", recovered.getValue("user1"));
+            assertEquals("enrolled", recovered.getValue("user2"));
+            assertNull(recovered.getValue("user3"));
+            assertEquals(2, recovered.getKeyCount());
+            assertEquals(tail, recovered.getWrittenBytes());
+
+            recovered.setValue("user3", "enrolled");
+        } finally {
+            recovered.close();
+        }
+        LogStructuredStoreBackend reopened = new LogStructuredStoreBackend(file);
+        try {
+            assertEquals("enrolled", reopened.getValue("user3"));
+            assertEquals("revoked", reopened.getValue("user1"));
+            assertEquals(3, reopened.getKeyCount());
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 author All Rights Reserved.
+ */
+package com.hyperledger.fabric.consortium;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PropertiesStoreBackend} shared by several processes: each worker JVM writes its own keys and increments a
+ * shared counter with {@link PropertiesStoreBackend#compareAndSet(String, long, String)}, no key and no increment may
+ * be lost.
+ */
+public class PropertiesStoreBackendTest {
+    private static final String COUNTER = "stress.counter";
+    private static final int PROCESSES = 4;
+    private static final int KEYS = 100;
+    private static final long WORKER_TIMEOUT_SECONDS = 120L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void processesWritingThroughLoseNothing() throws Exception {
+        stress(0L);
+    }
+
+    @Test
+    public void processesWritingBehindLoseNothing() throws Exception {
+        stress(20L);
+    }
+
+    @Test
+    public void rejectsAKeyWrittenByAnotherProcessSinceItWasSet() throws Exception {
+        File file = new File(folder.getRoot(), "store.properties");
+        PropertiesStoreBackend writer = new PropertiesStoreBackend(file);
+        writer.setValue("user1", "enrolled");
+        PropertiesStoreBackend local = new PropertiesStoreBackend(file, TimeUnit.HOURS.toMillis(1));
+        try {
+            local.setValue("user1", "local");
+            local.setValue("user2", "local");
+            writer.setValue("user1", "remote");
+
+            try {
+                local.flush();
+                fail("the flush overwrote the key written by another process");
+            } catch (StoreConflictException ex) {
+                assertEquals(Collections.singleton("user1"), ex.getNames());
+            }
+
+            assertEquals("remote", writer.getValue("user1"));
+            assertEquals("local", writer.getValue("user2"));
+            assertEquals("remote", local.getValue("user1"));
+            assertEquals(2L, local.getGeneration("user1"));
+            assertEquals(1L, local.getConflictCount());
+            assertEquals(0, local.getPendingCount());
+
+            local.setValue("user1", "local again");
+            local.flush();
+            assertEquals("local again", writer.getValue("user1"));
+        } finally {
+            local.close();
+        }
+    }
+
+    @Test
+    public void keepsTheBaseGenerationOfAKeySetDuringAFlush() throws Exception {
+        File file = new File(folder.getRoot(), "store.properties");
+        PropertiesStoreBackend local = new PropertiesStoreBackend(file, TimeUnit.HOURS.toMillis(1));
+        try {
+            local.setValue("user1", "first");
+            local.flush();
+            local.setValue("user1", "second");
+            local.flush();
+            assertEquals("second", new PropertiesStoreBackend(file).getValue("user1"));
+            assertEquals(2L, local.getGeneration("user1"));
+            assertEquals(0L, local.getConflictCount());
+        } finally {
+            local.close();
+        }
+    }
+
+    private void stress(long flushIntervalMillis) throws Exception {
+        File file = new File(folder.getRoot(), "stress.properties");
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            workers.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"), PropertiesStoreBackendTest.class.getName(),
+                    file.getPath(), Integer.toString(i), Long.toString(flushIntervalMillis))
+                    .inheritIO().start());
+        }
+        for (Process worker : workers) {
+            assertTrue("a worker timed out", worker.waitFor(WORKER_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals("a worker failed", 0, worker.exitValue());
+        }
+
+        PropertiesStoreBackend backend = new PropertiesStoreBackend(file);
+        List<String> lost = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            for (int k = 0; k < KEYS; k++) {
+                if (!value(i, k).equals(backend.getValue(key(i, k)))) {
+                    lost.add(key(i, k));
+                }
+            }
+        }
+        assertEquals("keys lost", Collections.emptyList(), lost);
+        assertEquals("increments lost", Long.toString((long) PROCESSES * KEYS), backend.getValue(COUNTER));
+    }
+
+    /**
+     * the worker process: write its keys and increment the counter once per key.
+     * @param args the store file, the worker number and the flush interval
+     */
+    public static void main(String[] args) throws Exception {
+        int worker = Integer.parseInt(args[1]);
+        File file = new File(args[0]);
+        PropertiesStoreBackend backend = new PropertiesStoreBackend(file, Long.parseLong(args[2]));
+        for (int k = 0; k < KEYS; k++) {
+            backend.setValue(key(worker, k), value(worker, k));
+            while (true) {
+                PropertiesStoreBackend reader = new PropertiesStoreBackend(file);
+                long generation = reader.getGeneration(COUNTER);
+                String current = reader.getValue(COUNTER);
+                long next = (null == current ? 0L : Long.parseLong(current)) + 1;
+                if (backend.compareAndSet(COUNTER, generation, Long.toString(next))) {
+                    break;
+                }
+            }
+        }
+        backend.close();
+        System.exit(backend.getPendingCount() == 0 ? 0 : 1);
+    }
+
+    private static String key(int worker, int k) {
+        return "stress.p" + worker + ".k" + k;
+    }
+
+    private static String value(int worker, int k) {
+        return "value-" + worker + "-" + k;
+    }
+}